@@ -21,23 +21,10 @@
 
 package fr.nghs.android.abd;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.ProxySelector;
-import java.net.URI;
-import java.net.URL;
-import java.util.List;
+import java.util.ArrayList;
 
 import android.content.Context;
-import android.content.pm.PackageManager;
 import android.os.AsyncTask;
 
 /**
@@ -61,6 +48,28 @@ public class AdBlockersDetector
         void onResult(boolean adBlockerFound, Info info);
     }
 
+    /**
+     *  Asynchronous callback following the detection probe by probe
+     */
+    public interface ProgressCallback
+    {
+        /**
+         * Called in the GUI thread after each probe, results are delivered in batches.
+         * @param probe the probe that ended
+         * @param found true if this probe found an ad blocker
+         * @param elapsedMs time spent in the probe
+         */
+        void onProbeResult(Probe probe, boolean found, long elapsedMs);
+
+        /**
+         * Called once in the GUI thread, as soon as the result is known:
+         * a positive result is delivered before the remaining probes end.
+         * @param adBlockerFound true if an ad blocker is installed.
+         * @param info on detected ad blocker.
+         */
+        void onVerdict(boolean adBlockerFound, Info info);
+    }
+
     /**
      *  Detection method
      */
@@ -75,7 +84,22 @@ public class AdBlockersDetector
         /** Detected by resolving host names */
         BY_HOST_RESOLUTION,
         /** Detected local proxy */
-        BY_LOCAL_PROXY
+        BY_LOCAL_PROXY,
+        /** Detected by a custom probe, see {@link Info#methodId} */
+        CUSTOM;
+
+        private static final Method[] VALUES = values();
+
+        /**
+         * @return the method of a probe identifier, CUSTOM if not built-in.
+         */
+        static Method fromId(String id)
+        {
+            for(final Method m : VALUES)
+                if(m.name().equals(id))
+                    return m;
+            return CUSTOM;
+        }
     }
 
     /** 
@@ -85,13 +109,20 @@ public class AdBlockersDetector
     {
         /** The used method */
         public Method method;
+        /** Identifier of the probe that found the ad blocker, see {@link Probe#getId()} */
+        public String methodId;
         /** Details, depending on method */
         public String details1;
         public String details2;
+        /**
+         * True if some networked probes were skipped because the
+         * network budget is exhausted: a negative result is less reliable.
+         */
+        public boolean degraded;
     }
 
 
-    private WeakReference<Context> context;
+    private Environment env;
     /**
      * True to allow networking (ie send HTTP, DNS requests...)
      * Disabled by default to preserve battery & data usage.
@@ -102,247 +133,255 @@ public class AdBlockersDetector
      * Require allowNetworking == true.
      */
     private boolean detectLocalProxy = false;
+    /**
+     * Limits networked probes, null for no limit.
+     */
+    private NetworkBudget budget = null;
+    /**
+     * Verdicts shared with sibling applications, null if disabled.
+     */
+    private SharedVerdicts shared = null;
+    /**
+     * Built-in and custom probes, in registration order.
+     */
+    private final ArrayList<Probe> probes = new ArrayList<>();
+    /**
+     * Probes to run, by increasing cost.
+     */
+    private volatile Probe[] scheduled;
+    /**
+     * Identifiers of the registered probes, to validate shared verdicts.
+     */
+    private volatile String[] probeIds;
+    /**
+     * Identifiers of the scheduled probes, part of shared verdicts fingerprints.
+     */
+    private volatile String scheduledIds;
+    /**
+     * Reused by synchronous detections, so that they do not allocate.
+     */
+    private final ThreadLocal<ProbeContext> contexts = new ThreadLocal<>();
+    /**
+     * Records traces of detections, null if disabled.
+     */
+    private TraceRecorder recorder = null;
 
     /**
      * @param c c can be null, in this case the method using package name is not used.
      */
     public AdBlockersDetector(Context c)
     {
-        context = new WeakReference<>(c);
+        env = new DeviceEnvironment(c);
+        probes.add(new AppNameProbe());
+        probes.add(new HostResolutionProbe());
+        probes.add(new HostsFileProbe());
+        probes.add(new LocalProxyProbe());
+        reschedule();
+    }
+
+    /**
+     * Add a custom probe, run with the built-in ones according to its cost.
+     */
+    public final synchronized void addProbe(Probe p)
+    {
+        probes.add(p);
+        reschedule();
+    }
+
+    public final synchronized void removeProbe(Probe p)
+    {
+        probes.remove(p);
+        reschedule();
+    }
+
+    private synchronized void reschedule()
+    {
+        final ArrayList<Probe> enabled = new ArrayList<>(probes.size());
+        for(final Probe p : probes)
+            if(detectLocalProxy || !(p instanceof LocalProxyProbe))
+                enabled.add(p);
+        scheduled = ProbeEngine.schedule(enabled, allowNetworking);
+        final StringBuilder sb = new StringBuilder();
+        for(final Probe p : scheduled)
+            sb.append((sb.length() == 0) ? "" : ",").append(p.getId());
+        scheduledIds = sb.toString();
+        final String[] ids = new String[probes.size()];
+        for(int i = 0; i < ids.length; ++i)
+            ids[i] = probes.get(i).getId();
+        probeIds = ids;
+    }
+
+    /**
+     * Asynchronous ad-blockers detection.
+     * Callback is called in GUI thread.
+     * @param callback
+     */
+    public Detection detectAdBlockers(Callback callback)
+    {
+        return detectAdBlockers(callback, null);
     }
 
     /**
      * Asynchronous ad-blockers detection.
      * Callback is called in GUI thread.
      * @param callback
+     * @param info if not null, it will be filled and given to the callback
+     * instead of a newly allocated one.
+     * @return a handle to cancel the detection, eg. in Activity.onDestroy().
+     */
+    public Detection detectAdBlockers(Callback callback, Info info)
+    {
+        final Cancellation cancel = new Cancellation();
+        final DetectTask t = new DetectTask(callback, info, cancel);
+        t.execute();
+        return new Detection(t, cancel);
+    }
+
+    /**
+     * Asynchronous ad-blockers detection, reporting each probe result.
+     * Callback is called in GUI thread.
+     * @param callback
+     * @param runAllProbes false to cancel the remaining probes once an ad blocker
+     * is found, true to let them run and report their results for diagnostics.
+     * @return a handle to cancel the detection, eg. in Activity.onDestroy().
      */
-    public void detectAdBlockers(Callback callback)
+    public Detection detectAdBlockers(ProgressCallback callback, boolean runAllProbes)
     {
-        new DetectTask(callback).execute();
+        final Cancellation cancel = new Cancellation();
+        final ProgressTask t = new ProgressTask(new ProgressDispatcher(callback, cancel), runAllProbes, cancel);
+        t.execute();
+        return new Detection(t, cancel);
     }
 
     /**
      * Synchronous ad-blockers detection
      * This is blocking and should be called in a separated thread.
      * In Android activities, prefer the asynchronous version.
+     * When networking is disabled and nothing changed on the device
+     * since the previous call, the library does not allocate any object;
+     * only the platform checks of the hosts file status (File.canRead(),
+     * length() and lastModified()) may allocate a few bytes.
      * @param info if not null, it will be filled.
      * @return true if an ad-blocker is detected
      */
     public boolean detectAdBlockers(Info info)
+    {
+        return detectAdBlockers(info, Cancellation.NEVER, null, false);
+    }
+
+    private boolean detectAdBlockers(Info info, Cancellation cancel, ProbeObserver progress, boolean exhaustive)
     {
         if(info != null)
-        {
-            info.method = Method.NONE;
-            info.details1 = "";
-            info.details2 = "";
-        }
-        return  detectAppNames(info) ||
-        		(allowNetworking && detectHostName(info)) ||
-                detectInHostFile(info) ||
-                (allowNetworking && detectLocalProxy && detectLocalAdProxy(info));
+            reset(info);
+        // a single snapshot for the whole detection, even if updated meanwhile
+        final Signatures sig = SignatureRegistry.current();
+
+        final SharedVerdicts sv = shared;
+        if(sv == null)
+            return runProbes(sig, info, cancel, progress, exhaustive);
+
+        final String fingerprint = fingerprint(sig);
+        final SharedVerdict v = sv.find(fingerprint, info, probeIds);
+        if(v != null)
+            return v.found;
+        // full detection, its details are needed to publish it
+        final Info i = (info != null) ? info : newInfo();
+        final boolean r = runProbes(sig, i, cancel, progress, exhaustive);
+        if(!cancel.isCancelled())
+            sv.publish(fingerprint, r, i);
+        return r;
     }
 
     /**
-     * Synchronous ad-blockers detection
-     * This is blocking and should be called in a separated thread.
-     * In Android activities, prefer the asynchronous version.
-     * @return true if an adblocker is detected
+     * Fingerprint of shared verdicts for this detector configuration.
      */
-    public boolean detectAdBlockers()
+    final String fingerprint(Signatures sig)
     {
-        return detectAdBlockers((Info)null);
+        return SharedVerdicts.fingerprint(sig, scheduledIds, env);
     }
 
-    private boolean detectInHostFile(Info info)
+    /**
+     * @return an Info telling no ad blocker was found, as a detection starts.
+     */
+    static Info newInfo()
     {
-        // search a readable hosts file
-        File hostsFile = null;
-        for(final String fileName : HOSTS_FILES)
-        {
-            hostsFile = new File(fileName);
-            if(hostsFile.canRead())
-                break;
-        }
-        // and read it
-        if(hostsFile != null && hostsFile.canRead())
-        {
-            BufferedReader in = null;
-            try
-            {
-                in = new BufferedReader(new FileReader(hostsFile));
-                String ln;
-                while( (ln = in.readLine()) != null )
-                {
-                    ln = ln.trim();
-                    if(ln.length() > 0 && ln.charAt(0) != '#')
-                    {
-                        for(final String pattern : HOSTS_FILE_PATTERNS)
-                        {
-                            if(ln.contains(pattern))
-                            {
-                                if(info != null)
-                                {
-                                    info.method = Method.BY_HOSTS_FILE;
-                                    info.details1 = hostsFile.getAbsolutePath();
-                                    info.details2 = ln;
-                                }
-                                return true;
-                            }
-                        }
-                    }
-                }
-            }
-            catch(Exception e)
-            {
-                return false;
-            }	
-            finally
-            {
-                try
-                {
-                    if(in != null)
-                        in.close();
-                }
-                catch (IOException e) { }
-            }
-        }
-        return false;
+        final Info info = new Info();
+        reset(info);
+        return info;
     }
 
-    private boolean detectHostName(Info info)
+    private static void reset(Info info)
     {
-        for(final String h : BLOCKED_HOSTS)
-        {
-            final String addr = isLocalHost(h);
-            if(addr != null)
-            {
-                if(info != null)
-                {
-                    info.method = Method.BY_HOST_RESOLUTION;
-                    info.details1 = h;
-                    info.details2 = addr;
-                }
-                return true;
-            }
-        }
-        return false;
+        info.method = Method.NONE;
+        info.methodId = info.method.name();
+        info.details1 = "";
+        info.details2 = "";
+        info.degraded = false;
     }
 
-    private String isLocalHost(String hostName)
+    private boolean runProbes(Signatures sig, Info info, Cancellation cancel, ProbeObserver progress,
+            boolean exhaustive)
     {
-        try
+        ProbeContext ctx = contexts.get();
+        if(ctx == null)
         {
-            final InetAddress a = InetAddress.getByName(hostName);
-            if(a != null && (a.isAnyLocalAddress() || a.isLinkLocalAddress() || a.isLoopbackAddress()))
-                return a.getHostAddress();
+            ctx = new ProbeContext();
+            contexts.set(ctx);
         }
-        catch(Exception ex)
+        final TraceRecorder rec = recorder;
+        if(rec != null)
+            return runRecorded(rec, sig, info, cancel, ctx, progress, exhaustive);
+
+        ctx.reset(sig, env, cancel, budget, progress);
+        try
         {
+            final boolean r = ProbeEngine.run(scheduled, ctx, (info != null) ? info : ctx.scratch, exhaustive);
+            if(info != null)
+                info.degraded = ctx.isDegraded();
+            return r;
         }
-        return null;
-    }
-
-    private boolean detectAppNames(Info info)
-    {
-        if(context != null)
+        finally
         {
-            for(final String app : BLOCKERS_APP_NAMES)
-            {
-                if(isAppInstalled(app))
-                {
-                    if(info != null)
-                    {
-                        info.method = Method.BY_APP_NAME;
-                        info.details1 = app;
-                    }
-                    return true;
-                }
-            }
+            ctx.reset(null, null, null, null, null);
         }
-        return false;
     }
 
-    private boolean isAppInstalled(String packageName)
+    private boolean runRecorded(TraceRecorder rec, Signatures sig, Info info, Cancellation cancel, ProbeContext ctx,
+            ProbeObserver progress, boolean exhaustive)
     {
+        final Trace trace = new Trace();
+        trace.add(Trace.SIGNATURES, Integer.toString(sig.getVersion()));
+        final RecordingEnvironment renv = new RecordingEnvironment(env, trace);
+        final Info i = (info != null) ? info : ctx.scratch;
+        if(info == null)
+            reset(i);
+        ctx.reset(sig, renv, cancel, budget, (progress != null) ? new BothObservers(renv, progress) : renv);
+        final long start = System.nanoTime();
         try
         {
-            final Context c = context.get();
-            return (c != null) && (c.getPackageManager().getPackageInfo(packageName, PackageManager.GET_ACTIVITIES) != null);
+            final boolean r = ProbeEngine.run(scheduled, ctx, i, exhaustive);
+            i.degraded = ctx.isDegraded();
+            trace.add(Trace.VERDICT, r ? "1" : "0", r ? i.methodId : null, i.details1, i.details2,
+                    Long.toString((System.nanoTime() - start) / 1000));
+            if(!cancel.isCancelled())
+                rec.complete(renv, trace);
+            return r;
         }
-        catch(Exception e) // PackageManager.NameNotFoundException
+        finally
         {
-            return false;
+            ctx.reset(null, null, null, null, null);
         }
     }
 
-    //TODO test me!
-    private boolean detectLocalAdProxy(Info info)
-    {
-    	boolean hasLocalProxy = false;
-    	String proxyAddr = "";
-    	final ProxySelector ps = ProxySelector.getDefault();
-    	if(ps != null)
-    	{
-    		final List<Proxy> proxies = ps.select(URI.create(HTTP_TEST_URLS[0]));
-    		if(proxies != null)
-    		{
-    			for(final Proxy p : proxies)
-    			{
-    				if(p != Proxy.NO_PROXY &&
-						p.type() == Proxy.Type.HTTP &&
-						p.address() instanceof InetSocketAddress)
-    				{
-    					final InetAddress isa = ((InetSocketAddress)p.address()).getAddress();
-    					if(isa.isLoopbackAddress() || isa.isAnyLocalAddress())
-    					{
-    						proxyAddr = isa.toString();
-    						hasLocalProxy = true;
-    						break;
-    					}
-    				}
-    			}
-    		}
-    	}
- 
-    	if(hasLocalProxy)
-    	{
-    		for(final String u : HTTP_TEST_URLS)
-    		{
-    			if(httpAlmostNoContent(u))
-    			{
-    				info.method = Method.BY_LOCAL_PROXY;
-    				info.details1 = u;
-    				info.details2 = proxyAddr;
-    				return true;
-    			}
-    		}
-    	}
-    	return false;
-    }
-    
     /**
-     * Return true if the content of url is < 4 bytes.
-     * @param url
-     * @return true if content < 4, false if content >= 4 or url unreachable
+     * Synchronous ad-blockers detection
+     * This is blocking and should be called in a separated thread.
+     * In Android activities, prefer the asynchronous version.
+     * @return true if an adblocker is detected
      */
-    private boolean httpAlmostNoContent(String url)
+    public boolean detectAdBlockers()
     {
-        try
-        {
-            final HttpURLConnection c = (HttpURLConnection)new URL(url).openConnection();
-            final int responseCode = c.getResponseCode();
-            if(200 <= responseCode && responseCode <= 399)
-            {
-            	final InputStream in = c.getInputStream();
-            	final boolean r = in.read(new byte[8]) < 4;
-            	in.close();
-            	return r;
-            }
-        }
-        catch(IOException exception)
-        {
-        }
-        return false;
+        return detectAdBlockers((Info)null);
     }
 
     /**
@@ -384,16 +423,6 @@ public class AdBlockersDetector
         "aax-eu.amazon-adsystem.com"
         };
 
-    /**
-     * "hosts" file possible paths
-     */
-    private static final String[] HOSTS_FILES = 
-        {
-        "/etc/hosts",
-        "/system/etc/hosts",
-        "/data/data/hosts"
-        };
-
     /**
      * Pattern to search in hosts file
      */
@@ -403,6 +432,7 @@ public class AdBlockersDetector
         "amazon-adsystem"
         };
 
+
     /**
      * URL that should normally more than 4 bytes of content
      */
@@ -411,15 +441,55 @@ public class AdBlockersDetector
         "http://media.admob.com/sdk-core-v40.js"
         };
 
+    /**
+     * Signatures built from the above lists, used until an update is published.
+     * @see SignatureRegistry
+     */
+    static final Signatures DEFAULT_SIGNATURES = new Signatures(0,
+            BLOCKERS_APP_NAMES, BLOCKED_HOSTS, HOSTS_FILE_PATTERNS, HTTP_TEST_URLS);
+
+    /**
+     * Handle on an asynchronous detection.
+     */
+    public static final class Detection
+    {
+        private final AsyncTask<?, ?, ?> task;
+        private final Cancellation cancellation;
+
+        private Detection(AsyncTask<?, ?, ?> t, Cancellation c)
+        {
+            task = t;
+            cancellation = c;
+        }
+
+        /**
+         * Stop the detection as soon as possible: the callback will not be called,
+         * pending DNS lookups are abandoned and open connections are closed.
+         */
+        public void cancel()
+        {
+            cancellation.cancel();
+            task.cancel(false);
+        }
+
+        public boolean isCancelled()
+        {
+            return cancellation.isCancelled();
+        }
+    }
+
     private class DetectTask extends AsyncTask<Void, Void, Boolean>
     {
 
         private WeakReference<Callback> callback;
         private Info info;
+        private final Cancellation cancel;
 
-        public DetectTask(Callback c)
+        public DetectTask(Callback c, Info i, Cancellation cancel)
         {
             callback = new WeakReference<>(c);
+            info = i;
+            this.cancel = cancel;
         }
 
         @Override
@@ -427,8 +497,9 @@ public class AdBlockersDetector
         {
             try
             {
-                info = new Info();
-                return detectAdBlockers(info);
+                if(info == null)
+                    info = new Info();
+                return detectAdBlockers(info, cancel, null, false);
             }
             catch(Throwable t)
             {
@@ -444,6 +515,81 @@ public class AdBlockersDetector
                 c.onResult(r, info);
         }
 
+        @Override
+        protected void onCancelled(Boolean r)
+        {
+            callback.clear();
+        }
+
+    }
+
+    private class ProgressTask extends AsyncTask<Void, Void, Boolean>
+    {
+
+        private final ProgressDispatcher progress;
+        private final boolean runAll;
+        private final Cancellation cancel;
+        private final Info info = new Info();
+
+        public ProgressTask(ProgressDispatcher p, boolean runAll, Cancellation cancel)
+        {
+            progress = p;
+            this.runAll = runAll;
+            this.cancel = cancel;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params)
+        {
+            try
+            {
+                return detectAdBlockers(info, cancel, progress, runAll);
+            }
+            catch(Throwable t)
+            {
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean r)
+        {
+            if(r != null)
+                progress.finish(r, info);
+        }
+
+        @Override
+        protected void onCancelled(Boolean r)
+        {
+            progress.clear();
+        }
+
+    }
+
+    private static final class BothObservers implements ProbeObserver
+    {
+        private final ProbeObserver first;
+        private final ProbeObserver second;
+
+        BothObservers(ProbeObserver a, ProbeObserver b)
+        {
+            first = a;
+            second = b;
+        }
+
+        @Override
+        public void onProbeResult(Probe probe, boolean found, long elapsedNanos)
+        {
+            first.onProbeResult(probe, found, elapsedNanos);
+            second.onProbeResult(probe, found, elapsedNanos);
+        }
+
+        @Override
+        public void onVerdict(Info info)
+        {
+            first.onVerdict(info);
+            second.onVerdict(info);
+        }
     }
 
 	public final boolean isNetworkingAllowed()
@@ -454,5 +600,80 @@ public class AdBlockersDetector
 	public final void setNetworkingAllowed(boolean v)
 	{
 		allowNetworking = v;
+		reschedule();
+	}
+
+	public final NetworkBudget getNetworkBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Limit the data and radio usage of networked probes.
+	 * @param b budget, null (the default) for no limit
+	 * @see NetworkBudget#getInstance(Context)
+	 */
+	public final void setNetworkBudget(NetworkBudget b)
+	{
+		budget = b;
+	}
+
+	public final SharedVerdicts getSharedVerdicts()
+	{
+		return shared;
+	}
+
+	/**
+	 * Reuse verdicts computed by sibling applications, and share ours.
+	 * @param s sharing configuration, null (the default) to disable
+	 * @see SharedVerdicts#forFamily(Context, long, String...)
+	 */
+	public final void setSharedVerdicts(SharedVerdicts s)
+	{
+		shared = s;
+	}
+
+	public final TraceRecorder getTraceRecorder()
+	{
+		return recorder;
+	}
+
+	/**
+	 * Record a trace of the next detections, to replay them later.
+	 * @param r recorder, null (the default) to stop recording
+	 * @see ReplayEnvironment
+	 */
+	public final void setTraceRecorder(TraceRecorder r)
+	{
+		recorder = r;
+	}
+
+	public final boolean isLocalProxyDetectionEnabled()
+	{
+		return detectLocalProxy;
+	}
+
+	/**
+	 * Enable local ad filtering proxy detection.
+	 * Has no effect unless networking is allowed.
+	 */
+	public final void setLocalProxyDetectionEnabled(boolean v)
+	{
+		detectLocalProxy = v;
+		reschedule();
+	}
+
+	public final Environment getEnvironment()
+	{
+		return env;
+	}
+
+	/**
+	 * Replace the device by a simulated one, for tests.
+	 * Must not be called while a detection is running.
+	 */
+	public final void setEnvironment(Environment e)
+	{
+		env = e;
 	}
 }
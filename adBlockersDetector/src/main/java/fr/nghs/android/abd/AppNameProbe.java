@@ -0,0 +1,60 @@
+/*
+ * AppNameProbe.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+/**
+ * Search installed packages of known ad blockers.
+ */
+final class AppNameProbe implements Probe
+{
+
+    @Override
+    public String getId()
+    {
+        return AdBlockersDetector.Method.BY_APP_NAME.name();
+    }
+
+    @Override
+    public Cost getCost()
+    {
+        return Cost.IPC;
+    }
+
+    @Override
+    public boolean isParallelSafe()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean run(ProbeContext ctx, AdBlockersDetector.Info info)
+    {
+        final String app = ctx.getEnvironment().findInstalledPackage(ctx.getSignatures());
+        if(app != null)
+        {
+            info.details1 = app;
+            return true;
+        }
+        return false;
+    }
+
+}
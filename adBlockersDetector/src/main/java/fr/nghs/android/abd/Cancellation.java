@@ -0,0 +1,132 @@
+/*
+ * Cancellation.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+
+/**
+ * Cooperative cancellation of a running detection.
+ * Probes check isCancelled() between steps and register the blocking
+ * resources they use (futures, HTTP connections, sockets) so that
+ * cancel() can release them immediately.
+ */
+final class Cancellation
+{
+
+    /** Token for detections that cannot be cancelled, registration is a no-op. */
+    static final Cancellation NEVER = new Cancellation(false);
+
+    private final boolean cancellable;
+    private volatile boolean cancelled = false;
+    private final ArrayList<Object> resources;
+
+    Cancellation()
+    {
+        this(true);
+    }
+
+    private Cancellation(boolean cancellable)
+    {
+        this.cancellable = cancellable;
+        resources = cancellable ? new ArrayList<Object>() : null;
+    }
+
+    boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Cancel the detection and release registered resources.
+     */
+    void cancel()
+    {
+        if(!cancellable)
+            return;
+        final Object[] rs;
+        synchronized(resources)
+        {
+            if(cancelled)
+                return;
+            cancelled = true;
+            rs = resources.toArray();
+            resources.clear();
+        }
+        for(final Object r : rs)
+            release(r);
+    }
+
+    /**
+     * Register a Future, an HttpURLConnection, a Closeable or a child Cancellation.
+     * If already cancelled, the resource is released immediately.
+     */
+    void register(Object resource)
+    {
+        if(!cancellable)
+            return;
+        synchronized(resources)
+        {
+            if(!cancelled)
+            {
+                resources.add(resource);
+                return;
+            }
+        }
+        release(resource);
+    }
+
+    void unregister(Object resource)
+    {
+        if(!cancellable)
+            return;
+        synchronized(resources)
+        {
+            resources.remove(resource);
+        }
+    }
+
+    private static void release(Object r)
+    {
+        try
+        {
+            if(r instanceof Cancellation)
+                ((Cancellation)r).cancel();
+            else if(r instanceof Future)
+                ((Future<?>)r).cancel(true);
+            else if(r instanceof HttpURLConnection)
+                ((HttpURLConnection)r).disconnect();
+            else if(r instanceof Closeable)
+                ((Closeable)r).close();
+        }
+        catch(IOException e)
+        {
+        }
+        catch(RuntimeException e) // disconnect() from another thread may throw
+        {
+        }
+    }
+
+}
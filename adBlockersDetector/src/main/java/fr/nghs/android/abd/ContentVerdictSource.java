@@ -0,0 +1,96 @@
+/*
+ * ContentVerdictSource.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * Verdict source backed by the {@link SharedVerdictProvider} of another application.
+ */
+final class ContentVerdictSource implements VerdictSource
+{
+
+    private final ContentResolver resolver;
+    private final String authority;
+
+    ContentVerdictSource(ContentResolver resolver, String authority)
+    {
+        this.resolver = resolver;
+        this.authority = authority;
+    }
+
+    @Override
+    public SharedVerdict read(int protocolVersion)
+    {
+        Cursor c = null;
+        try
+        {
+            c = resolver.query(SharedVerdictProvider.uri(authority, protocolVersion), null, null, null, null);
+            if(c == null || !c.moveToFirst())
+                return null;
+            final int protocol = c.getInt(c.getColumnIndex(SharedVerdictProvider.COL_PROTOCOL));
+            if(protocol < SharedVerdict.MIN_PROTOCOL_VERSION || protocol > protocolVersion)
+                return null;
+            return new SharedVerdict(protocol,
+                    c.getInt(c.getColumnIndex(SharedVerdictProvider.COL_FOUND)) != 0,
+                    c.getString(c.getColumnIndex(SharedVerdictProvider.COL_METHOD)),
+                    c.getString(c.getColumnIndex(SharedVerdictProvider.COL_DETAILS1)),
+                    c.getString(c.getColumnIndex(SharedVerdictProvider.COL_DETAILS2)),
+                    c.getInt(c.getColumnIndex(SharedVerdictProvider.COL_DEGRADED)) != 0,
+                    c.getLong(c.getColumnIndex(SharedVerdictProvider.COL_TIMESTAMP)),
+                    c.getString(c.getColumnIndex(SharedVerdictProvider.COL_FINGERPRINT)));
+        }
+        catch(RuntimeException e) // provider missing, disabled, or permission denied
+        {
+            return null;
+        }
+        finally
+        {
+            if(c != null)
+                c.close();
+        }
+    }
+
+    @Override
+    public void publish(SharedVerdict v)
+    {
+        final ContentValues cv = new ContentValues();
+        cv.put(SharedVerdictProvider.COL_PROTOCOL, v.protocolVersion);
+        cv.put(SharedVerdictProvider.COL_FOUND, v.found ? 1 : 0);
+        cv.put(SharedVerdictProvider.COL_METHOD, v.method);
+        cv.put(SharedVerdictProvider.COL_DETAILS1, v.details1);
+        cv.put(SharedVerdictProvider.COL_DETAILS2, v.details2);
+        cv.put(SharedVerdictProvider.COL_DEGRADED, v.degraded ? 1 : 0);
+        cv.put(SharedVerdictProvider.COL_TIMESTAMP, v.timestamp);
+        cv.put(SharedVerdictProvider.COL_FINGERPRINT, v.fingerprint);
+        try
+        {
+            resolver.insert(SharedVerdictProvider.uri(authority, SharedVerdict.PROTOCOL_VERSION), cv);
+        }
+        catch(RuntimeException e)
+        {
+        }
+    }
+
+}
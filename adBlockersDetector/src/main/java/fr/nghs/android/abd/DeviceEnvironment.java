@@ -0,0 +1,98 @@
+/*
+ * DeviceEnvironment.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ProxySelector;
+import java.net.URL;
+
+import android.content.Context;
+
+/**
+ * The real device.
+ */
+final class DeviceEnvironment implements Environment
+{
+
+    /**
+     * "hosts" file possible paths
+     */
+    private static final String[] HOSTS_FILES = 
+        {
+        "/etc/hosts",
+        "/system/etc/hosts",
+        "/data/data/hosts"
+        };
+
+    private static final File[] HOSTS_FILE_OBJECTS = new File[HOSTS_FILES.length];
+    static
+    {
+        for(int i = 0; i < HOSTS_FILES.length; ++i)
+            HOSTS_FILE_OBJECTS[i] = new File(HOSTS_FILES[i]);
+    }
+
+    private final WeakReference<Context> context;
+
+    /**
+     * @param c can be null, in this case no package is ever found.
+     */
+    DeviceEnvironment(Context c)
+    {
+        context = new WeakReference<>(c);
+    }
+
+    @Override
+    public String findInstalledPackage(Signatures sig)
+    {
+        final Context c = context.get();
+        return (c == null) ? null : PackageCache.findInstalled(c, sig);
+    }
+
+    @Override
+    public File[] getHostsFiles()
+    {
+        return HOSTS_FILE_OBJECTS;
+    }
+
+    @Override
+    public InetAddress resolve(String hostName) throws IOException
+    {
+        return InetAddress.getByName(hostName);
+    }
+
+    @Override
+    public ProxySelector getProxySelector()
+    {
+        return ProxySelector.getDefault();
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException
+    {
+        return (HttpURLConnection)url.openConnection();
+    }
+
+}
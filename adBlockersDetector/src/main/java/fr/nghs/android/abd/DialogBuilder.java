@@ -21,6 +21,10 @@
 
 package fr.nghs.android.abd;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
@@ -28,10 +32,17 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.DialogInterface.OnClickListener;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.text.Html;
 import android.util.Log;
 import android.view.View;
 
+/**
+ * Builds the dialog shown when an ad blocker is detected.
+ * Settings are only recorded: strings, icon and message are resolved by
+ * {@link #prepare()} in a background thread, or by create() if the dialog
+ * was not prepared, so that show() only has to build the views.
+ */
 public class DialogBuilder
 {
 
@@ -39,85 +50,166 @@ public class DialogBuilder
     public static final int BUTTON_BUY = AlertDialog.BUTTON_POSITIVE;
     public static final int BUTTON_CONTACT_US = AlertDialog.BUTTON_NEUTRAL;
 
-    private AlertDialog.Builder b;
-    private boolean canBuyAdFreeVersion = false;
-    private boolean customTextSet = false;
-    private Activity act;
-    private DefaultButtonHandlers defaultHandler = new DefaultButtonHandlers();
+    /** Indexes in Settings button arrays */
+    private static final int QUIT = 0;
+    private static final int BUY = 1;
+    private static final int CONTACT = 2;
+
+    private final Activity act;
+    private final Settings s = new Settings();
+    private final DefaultButtonHandlers defaultHandler = new DefaultButtonHandlers();
+    /** Resolution of the current settings, null if not started or out of date */
+    private FutureTask<Resolved> prepared = null;
 
     public DialogBuilder(Activity c)
     {
         act = c;
-        b = new AlertDialog.Builder(c);
-        b.setCancelable(false);
-        b.setTitle(R.string.dlg_title);
-
-        b.setOnCancelListener(defaultHandler);
+        s.titleId = R.string.dlg_title;
         setQuitButton(defaultHandler);
     }
 
+    /**
+     * Resolve strings, icon and message in a background thread, eg. while
+     * the detection runs, so that show() does less work in the GUI thread.
+     * Settings changed afterwards are resolved again by create(),
+     * except the ad blocker info.
+     */
+    public DialogBuilder prepare()
+    {
+        final FutureTask<Resolved> t = newResolution();
+        prepared = t;
+        final Thread th = new Thread(t, "abd-dialog");
+        th.setDaemon(true);
+        th.start();
+        return this;
+    }
+
     public Dialog create()
     {
-        // set default text
-        if(!customTextSet)
+        FutureTask<Resolved> t = prepared;
+        if(t == null)
         {
-            String txt = act.getString(R.string.dlg_default_text);
-            if(canBuyAdFreeVersion)
-                txt += act.getString(R.string.dlg_default_text_buy);
-            b.setMessage(Html.fromHtml(txt));
+            t = newResolution();
+            prepared = t;
+        }
+        // no-op if the background thread already started it
+        t.run();
+        Resolved r;
+        try
+        {
+            r = t.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            r = resolve(act, s.copy());
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new IllegalStateException(e.getCause());
         }
+        defaultHandler.setResolved(r);
+
+        final AlertDialog.Builder b = new AlertDialog.Builder(act);
+        b.setCancelable(false);
+        b.setTitle(r.title);
+        if(s.customTitle != null)
+            b.setCustomTitle(s.customTitle);
+        if(r.icon != null)
+            b.setIcon(r.icon);
+        else if(s.iconId != 0)
+            b.setIcon(s.iconId);
+        if(r.message != null)
+            b.setMessage(r.message);
+        if(s.view != null)
+            b.setView(s.view);
+        if(s.buttonSet[QUIT])
+            b.setNegativeButton(r.buttons[QUIT], s.listeners[QUIT]);
+        if(s.buttonSet[BUY])
+            b.setPositiveButton(r.buttons[BUY], s.listeners[BUY]);
+        if(s.buttonSet[CONTACT])
+            b.setNeutralButton(r.buttons[CONTACT], s.listeners[CONTACT]);
+        b.setOnCancelListener(defaultHandler);
         return b.create();
     }
 
-    public DialogBuilder setCustomTitle(View customTitleView)
+    private FutureTask<Resolved> newResolution()
+    {
+        final Settings copy = s.copy();
+        return new FutureTask<>(new Callable<Resolved>()
+        {
+            @Override
+            public Resolved call()
+            {
+                return resolve(act, copy);
+            }
+        });
+    }
+
+    /** Settings changed: the prepared resolution is out of date. */
+    private DialogBuilder changed()
     {
-        b.setCustomTitle(customTitleView);
+        prepared = null;
         return this;
     }
 
+    public DialogBuilder setCustomTitle(View customTitleView)
+    {
+        s.customTitle = customTitleView;
+        return changed();
+    }
+
     public DialogBuilder setIcon(Drawable icon)
     {
-        b.setIcon(icon);
-        return this;
+        s.icon = icon;
+        s.iconId = 0;
+        return changed();
     }
 
     public DialogBuilder setIcon(int iconId)
     {
-        b.setIcon(iconId);
-        return this;
+        s.icon = null;
+        s.iconId = iconId;
+        return changed();
     }
 
     public DialogBuilder setMessage(CharSequence message)
     {
-        customTextSet = (message != null);
-        b.setMessage(message);
-        return this;
+        s.customTextSet = (message != null);
+        s.message = message;
+        s.messageId = 0;
+        return changed();
     }
 
     public DialogBuilder setMessage(int messageId)
     {
-        customTextSet = (messageId != 0);
-        b.setMessage(messageId);
-        return this;
+        s.customTextSet = (messageId != 0);
+        s.message = null;
+        s.messageId = messageId;
+        return changed();
     }
 
     public DialogBuilder setTitle(CharSequence title)
     {
-        b.setTitle(title);
-        return this;
+        s.title = title;
+        s.titleId = 0;
+        return changed();
     }
 
     public DialogBuilder setTitle(int titleId)
     {
-        b.setTitle(titleId);
-        return this;
+        s.title = null;
+        s.titleId = titleId;
+        return changed();
     }
 
     public DialogBuilder setView(View view)
     {
-        customTextSet = (view != null);
-        b.setView(view);
-        return this;
+        s.customTextSet = (view != null);
+        s.view = view;
+        return changed();
     }
 
     public Dialog show()
@@ -152,13 +244,12 @@ public class DialogBuilder
 
     public DialogBuilder setContactButton(int textRes, OnClickListener listener)
     {
-        return setContactButton(act.getString(textRes), listener);
+        return setButton(CONTACT, null, textRes, listener);
     }
 
     public DialogBuilder setContactButton(CharSequence text, OnClickListener listener)
     {
-        b.setNeutralButton(text, listener);
-        return this;
+        return setButton(CONTACT, text, 0, listener);
     }
 
     public DialogBuilder setQuitButton(OnClickListener listener)
@@ -168,13 +259,12 @@ public class DialogBuilder
 
     public DialogBuilder setQuitButton(int textRes, OnClickListener listener)
     {
-        return setQuitButton(act.getString(textRes), listener);
+        return setButton(QUIT, null, textRes, listener);
     }
 
     public DialogBuilder setQuitButton(CharSequence text, OnClickListener listener)
     {
-        b.setNegativeButton(text, listener);
-        return this;
+        return setButton(QUIT, text, 0, listener);
     }
 
     public DialogBuilder setBuyButton(OnClickListener listener)
@@ -184,26 +274,134 @@ public class DialogBuilder
 
     public DialogBuilder setBuyButton(int textRes, OnClickListener listener)
     {
-        return setBuyButton(act.getString(textRes), listener);
+        s.canBuyAdFreeVersion = (listener != null);
+        return setButton(BUY, null, textRes, listener);
     }
 
     public DialogBuilder setBuyButton(CharSequence text, OnClickListener listener)
     {
-        canBuyAdFreeVersion = (listener != null);
-        b.setPositiveButton(text, listener);
-        return this;
+        s.canBuyAdFreeVersion = (listener != null);
+        return setButton(BUY, text, 0, listener);
+    }
+
+    private DialogBuilder setButton(int index, CharSequence text, int textRes, OnClickListener listener)
+    {
+        s.buttonSet[index] = true;
+        s.buttonTexts[index] = text;
+        s.buttonTextIds[index] = textRes;
+        s.listeners[index] = listener;
+        return changed();
     }
 
+    /**
+     * Can be called after prepare(), eg. when the detection ends,
+     * without resolving the dialog again. The info is only read when the
+     * contact button is clicked.
+     */
     public final DialogBuilder setAdBlockerInfo(AdBlockersDetector.Info info)
     {
         defaultHandler.setInfo(info);
         return this;
     }
 
+    /**
+     * Recorded settings, copied when a resolution starts.
+     */
+    private static final class Settings implements Cloneable
+    {
+        CharSequence title;
+        int titleId;
+        View customTitle;
+        Drawable icon;
+        int iconId;
+        CharSequence message;
+        int messageId;
+        View view;
+        boolean customTextSet = false;
+        boolean canBuyAdFreeVersion = false;
+        boolean[] buttonSet = new boolean[3];
+        CharSequence[] buttonTexts = new CharSequence[3];
+        int[] buttonTextIds = new int[3];
+        OnClickListener[] listeners = new OnClickListener[3];
+
+        Settings copy()
+        {
+            try
+            {
+                final Settings c = (Settings)clone();
+                c.buttonSet = buttonSet.clone();
+                c.buttonTexts = buttonTexts.clone();
+                c.buttonTextIds = buttonTextIds.clone();
+                c.listeners = listeners.clone();
+                return c;
+            }
+            catch(CloneNotSupportedException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * Resources and texts ready to be given to the dialog.
+     */
+    private static final class Resolved
+    {
+        CharSequence title;
+        Drawable icon;
+        CharSequence message;
+        final CharSequence[] buttons = new CharSequence[3];
+        /** Contact email texts, the ad blocker info is appended on click */
+        String emailChooserTitle;
+        String emailSubject;
+        String emailMessage;
+    }
+
+    /**
+     * Can be called in any thread.
+     */
+    private static Resolved resolve(Activity act, Settings s)
+    {
+        final Resolved r = new Resolved();
+        r.title = (s.titleId != 0) ? act.getText(s.titleId) : s.title;
+        r.icon = s.icon;
+        if(r.icon == null && s.iconId != 0)
+        {
+            // before Lollipop, let the dialog resolve it
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            {
+                try
+                {
+                    r.icon = act.getResources().getDrawable(s.iconId, act.getTheme());
+                }
+                catch(RuntimeException e) // let the dialog resolve it
+                {
+                }
+            }
+        }
+        if(!s.customTextSet)
+        {
+            // default text
+            String txt = act.getString(R.string.dlg_default_text);
+            if(s.canBuyAdFreeVersion)
+                txt += act.getString(R.string.dlg_default_text_buy);
+            r.message = Html.fromHtml(txt);
+        }
+        else
+            r.message = (s.messageId != 0) ? act.getText(s.messageId) : s.message;
+        for(int i = 0; i < r.buttons.length; ++i)
+            r.buttons[i] = (s.buttonTextIds[i] != 0) ? act.getString(s.buttonTextIds[i]) : s.buttonTexts[i];
+        r.emailChooserTitle = act.getString(R.string.contact_us);
+        r.emailSubject = act.getString(R.string.dlg_title);
+        r.emailMessage = act.getString(R.string.contact_default_msg);
+        return r;
+    }
+
     private final class DefaultButtonHandlers implements OnClickListener, OnCancelListener
     {
         private String emailAddress = null;
         private AdBlockersDetector.Info info = null;
+        private Resolved resolved = null;
         @Override
         public void onClick(DialogInterface dialog, int which)
         {
@@ -218,10 +416,11 @@ public class DialogBuilder
                         else
                             infoStr = "";
 
-                        Tools.sendEMail(act, act.getString(R.string.contact_us),
+                        final Resolved r = resolved;
+                        Tools.sendEMail(act, r.emailChooserTitle,
                                 emailAddress,
-                                act.getString(R.string.dlg_title),
-                                act.getString(R.string.contact_default_msg) + infoStr);
+                                r.emailSubject,
+                                r.emailMessage + infoStr);
 
                         Tools.quitApplication();
                         break;
@@ -250,6 +449,11 @@ public class DialogBuilder
         {
             this.info = info;
         }
+
+        final void setResolved(Resolved r)
+        {
+            resolved = r;
+        }
     }
 
 
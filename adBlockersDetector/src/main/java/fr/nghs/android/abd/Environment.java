@@ -0,0 +1,67 @@
+/*
+ * Environment.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ProxySelector;
+import java.net.URL;
+
+/**
+ * Everything the detector reads from the device.
+ * The default implementation queries the real device; other implementations
+ * can be given to {@link AdBlockersDetector#setEnvironment(Environment)}
+ * to run detections against a simulated device (load tests for example).
+ * Implementations must be thread-safe.
+ */
+public interface Environment
+{
+    /**
+     * @param sig known ad blockers, see {@link Signatures#getAppRank(String)}
+     * @return the installed package with the lowest rank, or null if none is installed.
+     */
+    String findInstalledPackage(Signatures sig);
+
+    /**
+     * @return candidate hosts files, by order of preference.
+     * The same array should be returned each time so scans can be cached.
+     */
+    File[] getHostsFiles();
+
+    /**
+     * Resolve a host name.
+     * @throws IOException if the name cannot be resolved
+     */
+    InetAddress resolve(String hostName) throws IOException;
+
+    /**
+     * @return the proxy selector used for HTTP requests, may be null.
+     */
+    ProxySelector getProxySelector();
+
+    /**
+     * Open an HTTP connection to url, using the proxy selector.
+     */
+    HttpURLConnection openConnection(URL url) throws IOException;
+}
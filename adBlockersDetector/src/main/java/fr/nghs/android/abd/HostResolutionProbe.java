@@ -0,0 +1,159 @@
+/*
+ * HostResolutionProbe.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolve known ad servers and check whether they resolve to a local address
+ * (works for both DNS and hosts file based blockers).
+ */
+final class HostResolutionProbe implements Probe
+{
+
+    /** Maximum number of lookup threads in the process */
+    private static final int MAX_DNS_THREADS = 64;
+
+    /**
+     * DNS lookups are blocking and cannot be interrupted, they run on
+     * this pool so a cancelled detection does not wait for them.
+     * Abandoned lookups keep their thread until they end, so the pool grows
+     * instead of queueing new lookups behind them; once the cap is reached,
+     * lookups run in the detection thread, one after the other.
+     */
+    private static final ExecutorService DNS_EXECUTOR;
+    static
+    {
+        DNS_EXECUTOR = new ThreadPoolExecutor(0, MAX_DNS_THREADS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        final Thread t = new Thread(r, "abd-dns");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public String getId()
+    {
+        return AdBlockersDetector.Method.BY_HOST_RESOLUTION.name();
+    }
+
+    @Override
+    public Cost getCost()
+    {
+        return Cost.NETWORK;
+    }
+
+    @Override
+    public boolean isParallelSafe()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean run(final ProbeContext ctx, AdBlockersDetector.Info info)
+    {
+        final String[] hosts = ctx.getSignatures().blockedHosts;
+        if(!ctx.acquireNetworkBudget(hosts.length, hosts.length * NetworkBudget.DNS_QUERY_BYTES))
+            return false;
+
+        // resolve all hosts in parallel, the first local address wins
+        final CompletionService<String[]> cs = new ExecutorCompletionService<>(DNS_EXECUTOR);
+        final ArrayList<Future<String[]>> pending = new ArrayList<>(hosts.length);
+        try
+        {
+            for(final String h : hosts)
+            {
+                final Future<String[]> f = cs.submit(new Callable<String[]>()
+                {
+                    @Override
+                    public String[] call()
+                    {
+                        final String addr = isLocalHost(ctx.getEnvironment(), h);
+                        return (addr == null) ? null : new String[] { h, addr };
+                    }
+                });
+                pending.add(f);
+                ctx.register(f);
+            }
+            for(int i = 0; i < pending.size() && !ctx.isCancelled(); ++i)
+            {
+                final String[] r = cs.take().get();
+                if(r != null)
+                {
+                    info.details1 = r[0];
+                    info.details2 = r[1];
+                    return true;
+                }
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(ExecutionException | CancellationException e)
+        {
+        }
+        finally
+        {
+            // abandon lookups still in progress
+            for(final Future<String[]> f : pending)
+            {
+                f.cancel(true);
+                ctx.unregister(f);
+            }
+        }
+        return false;
+    }
+
+    private static String isLocalHost(Environment env, String hostName)
+    {
+        try
+        {
+            final InetAddress a = env.resolve(hostName);
+            if(a != null && (a.isAnyLocalAddress() || a.isLinkLocalAddress() || a.isLoopbackAddress()))
+                return a.getHostAddress();
+        }
+        catch(Exception ex)
+        {
+        }
+        return null;
+    }
+
+}
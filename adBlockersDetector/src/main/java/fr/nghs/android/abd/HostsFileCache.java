@@ -0,0 +1,187 @@
+/*
+ * HostsFileCache.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide cache of the hosts file scan.
+ * The file is only read again when its size or modification date changes,
+ * and the scan itself works on reusable byte buffers: no String is created
+ * except for the matching line. Checking the file status (canRead, length,
+ * lastModified) is left to the platform, which may allocate.
+ * There is one cache entry per array of candidate files (compared by
+ * identity), so that environments using different files do not evict
+ * each other nor wait for each other's scans.
+ */
+final class HostsFileCache
+{
+
+    private static final Object lock = new Object();
+
+    /** Candidate files -> cached scan, weak so that dropped environments are forgotten */
+    private static final WeakHashMap<File[], Entry> entries = new WeakHashMap<>();
+
+    /**
+     * @param files candidate hosts files, the first readable one is used
+     * @return index of the first readable file in files, or -1 if none is readable.
+     */
+    static int findReadable(File[] files)
+    {
+        for(int i = 0; i < files.length; ++i)
+            if(files[i].canRead())
+                return i;
+        return -1;
+    }
+
+    /**
+     * Search patterns in files[index].
+     * @param sig patterns to search in non-comment lines
+     * @param cancel checked between read chunks
+     * @return the first matching (trimmed) line or null if none matches or if cancelled.
+     */
+    static String find(File[] files, int index, Signatures sig, Cancellation cancel)
+    {
+        Entry e;
+        synchronized(lock)
+        {
+            e = entries.get(files);
+            if(e == null)
+            {
+                e = new Entry();
+                entries.put(files, e);
+            }
+        }
+        return e.find(files[index], index, sig, cancel);
+    }
+
+    private static final class Entry
+    {
+        private final byte[] readBuffer = new byte[8192];
+        private byte[] lineBuffer = new byte[256];
+
+        private int cachedIndex = -1;
+        private long cachedLength = -1;
+        private long cachedModified = -1;
+        private int cachedSignatures = -1;
+        private String cachedMatch = null;
+
+        synchronized String find(File f, int index, Signatures sig, Cancellation cancel)
+        {
+            final long length = f.length();
+            final long modified = f.lastModified();
+            if(cachedIndex == index && cachedSignatures == sig.id &&
+                    cachedLength == length && cachedModified == modified)
+                return cachedMatch;
+
+            final String match = scan(f, sig.hostsMatcher, cancel);
+            if(cancel.isCancelled())
+                return null;
+            cachedIndex = index;
+            cachedSignatures = sig.id;
+            cachedLength = length;
+            cachedModified = modified;
+            cachedMatch = match;
+            return match;
+        }
+
+        /** Must be called with this held. */
+        private String scan(File f, Signatures.HostsMatcher matcher, Cancellation cancel)
+        {
+            FileInputStream in = null;
+            try
+            {
+                in = new FileInputStream(f);
+                cancel.register(in);
+                int lineLen = 0;
+                int n;
+                while( !cancel.isCancelled() && (n = in.read(readBuffer)) > 0 )
+                {
+                    for(int i = 0; i < n; ++i)
+                    {
+                        final byte b = readBuffer[i];
+                        if(b == '\n' || b == '\r')
+                        {
+                            if(matchLine(lineLen, matcher))
+                                return trimmedLine(lineLen);
+                            lineLen = 0;
+                        }
+                        else
+                        {
+                            if(lineLen == lineBuffer.length)
+                            {
+                                final byte[] nb = new byte[lineBuffer.length * 2];
+                                System.arraycopy(lineBuffer, 0, nb, 0, lineLen);
+                                lineBuffer = nb;
+                            }
+                            lineBuffer[lineLen++] = b;
+                        }
+                    }
+                }
+                if(matchLine(lineLen, matcher))
+                    return trimmedLine(lineLen);
+            }
+            catch(IOException e)
+            {
+            }
+            finally
+            {
+                try
+                {
+                    if(in != null)
+                    {
+                        cancel.unregister(in);
+                        in.close();
+                    }
+                }
+                catch (IOException e) { }
+            }
+            return null;
+        }
+
+        private boolean matchLine(int len, Signatures.HostsMatcher matcher)
+        {
+            int start = 0;
+            while(start < len && lineBuffer[start] <= ' ')
+                ++start;
+            if(start == len || lineBuffer[start] == '#')
+                return false;
+            return matcher.matches(lineBuffer, start, len);
+        }
+
+        private String trimmedLine(int len)
+        {
+            int start = 0;
+            while(start < len && lineBuffer[start] <= ' ')
+                ++start;
+            while(len > start && lineBuffer[len - 1] <= ' ')
+                --len;
+            return new String(lineBuffer, start, len - start);
+        }
+    }
+
+    private HostsFileCache() {}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * HostsFileProbe.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.File;
+
+/**
+ * Search known patterns in the hosts file.
+ */
+final class HostsFileProbe implements Probe
+{
+
+    @Override
+    public String getId()
+    {
+        return AdBlockersDetector.Method.BY_HOSTS_FILE.name();
+    }
+
+    @Override
+    public Cost getCost()
+    {
+        return Cost.LOCAL_IO;
+    }
+
+    @Override
+    public boolean isParallelSafe()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean run(ProbeContext ctx, AdBlockersDetector.Info info)
+    {
+        // search a readable hosts file
+        final File[] files = ctx.getEnvironment().getHostsFiles();
+        final int index = HostsFileCache.findReadable(files);
+        // and scan it, unless it did not change since the last scan
+        if(index >= 0)
+        {
+            final String ln = HostsFileCache.find(files, index, ctx.getSignatures(), ctx.cancellation);
+            if(ln != null)
+            {
+                info.details1 = files[index].getPath();
+                info.details2 = ln;
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -9,6 +9,11 @@ import android.os.AsyncTask;
 public class InternetConnectionDetector
 {
 
+    /**
+     * Limits requests, null for no limit.
+     */
+    private NetworkBudget budget = null;
+
     /**
     *  Asynchronous callback
     */
@@ -21,6 +26,33 @@ public class InternetConnectionDetector
         void onResult(boolean isConnected);
     }
 
+    /**
+    *  Detection result
+    */
+    public enum Result
+    {
+        /** The Internet is reachable */
+        CONNECTED,
+        /** No test host could be reached */
+        NOT_CONNECTED,
+        /**
+         * Unknown: the network budget was exhausted before a test host
+         * could be reached, the connection may be working.
+         */
+        DEGRADED
+    }
+
+    /**
+    *  Asynchronous callback telling apart "not connected" and "degraded"
+    */
+    public interface ResultCallback
+    {
+        /**
+        * Called in the GUI thread when result is available.
+        */
+        void onResult(Result result);
+    }
+
     /**
     * Asynchronous Internet connection detection.
     * Callback is called in GUI thread.
@@ -28,19 +60,58 @@ public class InternetConnectionDetector
     */
     public void detectConnection(Callback callback)
     {
-        new DetectTask(callback).execute();
+        new DetectTask(callback, null).execute();
+    }
+
+    /**
+    * Asynchronous Internet connection check, telling a degraded result apart.
+    * Callback is called in GUI thread.
+    * @param callback
+    */
+    public void checkConnection(ResultCallback callback)
+    {
+        new DetectTask(null, callback).execute();
     }
 
     /**
     * Synchronous Internet connection detection
-    * @return true if the Internet is reachable
+    * @return true if the Internet is reachable, false if not or if the network
+    * budget is exhausted (see {@link #checkConnection()} to tell them apart)
     */
     public boolean detectConnection()
+    {
+        return checkConnection() == Result.CONNECTED;
+    }
+
+    /**
+    * Synchronous Internet connection detection
+    * @return CONNECTED, NOT_CONNECTED, or DEGRADED if the network budget
+    * was exhausted before a test host could be reached.
+    */
+    public Result checkConnection()
     {
         for(final String h : HTTP_HOSTS)
+        {
+            if(budget != null && !budget.tryAcquire(1, NetworkBudget.HTTP_REQUEST_BYTES))
+                return Result.DEGRADED;
             if(isReachable(h))
-                return true;
-        return false;
+                return Result.CONNECTED;
+        }
+        return Result.NOT_CONNECTED;
+    }
+
+    public final NetworkBudget getNetworkBudget()
+    {
+        return budget;
+    }
+
+    /**
+    * Limit the requests sent by this detector.
+    * @param b budget, null (the default) for no limit
+    */
+    public final void setNetworkBudget(NetworkBudget b)
+    {
+        budget = b;
     }
 
     public static boolean isReachable(String httpHost)
@@ -72,35 +143,42 @@ public class InternetConnectionDetector
         "www.wikipedia.org"
         };
 
-    private class DetectTask extends AsyncTask<Void, Void, Boolean>
+    private class DetectTask extends AsyncTask<Void, Void, Result>
     {
 
         private WeakReference<Callback> callback;
+        private WeakReference<ResultCallback> resultCallback;
 
-        public DetectTask(Callback c)
+        public DetectTask(Callback c, ResultCallback rc)
         {
             callback = new WeakReference<>(c);
+            resultCallback = new WeakReference<>(rc);
         }
 
         @Override
-        protected Boolean doInBackground(Void... params)
+        protected Result doInBackground(Void... params)
         {
             try
             {
-                return detectConnection();
+                return checkConnection();
             }
             catch(Throwable t)
             {
-                return false;		        
+                return Result.NOT_CONNECTED;
             }
         }
 
         @Override
-        protected void onPostExecute(Boolean r)
+        protected void onPostExecute(Result r)
         {
+            if(r == null)
+                return;
             final Callback c = callback.get();
-            if(c != null && r != null)
-                c.onResult(r);
+            if(c != null)
+                c.onResult(r == Result.CONNECTED);
+            final ResultCallback rc = resultCallback.get();
+            if(rc != null)
+                rc.onResult(r);
         }
 
     }
@@ -0,0 +1,142 @@
+/*
+ * LocalProxyProbe.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Detect a local ad filtering proxy: a local HTTP proxy returning
+ * (almost) no content for known ad scripts.
+ */
+final class LocalProxyProbe implements Probe
+{
+
+    @Override
+    public String getId()
+    {
+        return AdBlockersDetector.Method.BY_LOCAL_PROXY.name();
+    }
+
+    @Override
+    public Cost getCost()
+    {
+        return Cost.NETWORK;
+    }
+
+    @Override
+    public boolean isParallelSafe()
+    {
+        return true;
+    }
+
+    //TODO test me!
+    @Override
+    public boolean run(ProbeContext ctx, AdBlockersDetector.Info info)
+    {
+        final Signatures sig = ctx.getSignatures();
+    	boolean hasLocalProxy = false;
+    	String proxyAddr = "";
+    	final ProxySelector ps = ctx.getEnvironment().getProxySelector();
+    	if(ps != null && sig.testUris.length > 0)
+    	{
+    		final List<Proxy> proxies = ps.select(sig.testUris[0]);
+    		if(proxies != null)
+    		{
+    			for(final Proxy p : proxies)
+    			{
+    				if(p != Proxy.NO_PROXY &&
+						p.type() == Proxy.Type.HTTP &&
+						p.address() instanceof InetSocketAddress)
+    				{
+    					final InetAddress isa = ((InetSocketAddress)p.address()).getAddress();
+    					if(isa.isLoopbackAddress() || isa.isAnyLocalAddress())
+    					{
+    						proxyAddr = isa.toString();
+    						hasLocalProxy = true;
+    						break;
+    					}
+    				}
+    			}
+    		}
+    	}
+ 
+    	if(hasLocalProxy)
+    	{
+    		for(final URL u : sig.testUrls)
+    		{
+    			if(ctx.isCancelled() || !ctx.acquireNetworkBudget(1, NetworkBudget.HTTP_REQUEST_BYTES))
+    				break;
+    			if(httpAlmostNoContent(ctx, u))
+    			{
+    				info.details1 = u.toString();
+    				info.details2 = proxyAddr;
+    				return true;
+    			}
+    		}
+    	}
+    	return false;
+    }
+    
+    /**
+     * Return true if the content of url is < 4 bytes.
+     * @param url
+     * @return true if content < 4, false if content >= 4 or url unreachable
+     */
+    private static boolean httpAlmostNoContent(ProbeContext ctx, URL url)
+    {
+        HttpURLConnection c = null;
+        try
+        {
+            c = ctx.getEnvironment().openConnection(url);
+            ctx.register(c);
+            final int responseCode = c.getResponseCode();
+            if(200 <= responseCode && responseCode <= 399)
+            {
+            	final InputStream in = c.getInputStream();
+            	final boolean r = in.read(new byte[8]) < 4;
+            	in.close();
+            	return r && !ctx.isCancelled();
+            }
+        }
+        catch(IOException exception)
+        {
+        }
+        finally
+        {
+            if(c != null)
+            {
+                ctx.unregister(c);
+                c.disconnect();
+            }
+        }
+        return false;
+    }
+
+}
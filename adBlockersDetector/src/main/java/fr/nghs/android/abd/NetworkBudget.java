@@ -0,0 +1,204 @@
+/*
+ * NetworkBudget.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Limits the data, requests and radio wakeups used by networked probes.
+ * <p>
+ * Usage is counted per hour and per day, and persisted so that limits hold
+ * across application restarts. When the cellular radio is already active
+ * (the application, or the detector itself, used the network a few seconds
+ * ago) a request does not count as a wakeup; so once the wakeup budget is
+ * spent, networked probes only run when they can piggyback on other traffic.
+ * <p>
+ * When a probe is refused, the detection falls back to local probes and
+ * {@link AdBlockersDetector.Info#degraded} is set.
+ */
+public final class NetworkBudget
+{
+
+    /** Estimated size of a DNS query and its answer */
+    public static final int DNS_QUERY_BYTES = 128;
+    /** Estimated size of an HTTP request and its headers, without content */
+    public static final int HTTP_REQUEST_BYTES = 1024;
+
+    private static final long HOUR_MS = 60 * 60 * 1000;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    /** How long the radio stays in high power state after a transfer */
+    private static final long RADIO_TAIL_MS = 10 * 1000;
+
+    private static final String PREFS = "fr.nghs.android.abd.budget";
+
+    private static NetworkBudget instance = null;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+
+    private int maxRequestsPerHour = 30;
+    private int maxRequestsPerDay = 100;
+    private long maxBytesPerHour = 64 * 1024;
+    private long maxBytesPerDay = 256 * 1024;
+    private int maxWakeupsPerHour = 2;
+    private int maxWakeupsPerDay = 8;
+
+    private long hourStart, dayStart;
+    private int hourRequests, dayRequests;
+    private long hourBytes, dayBytes;
+    private int hourWakeups, dayWakeups;
+    /** SystemClock.elapsedRealtime() of the last known network use, 0 if none */
+    private long lastNetworkUse = 0;
+
+    /**
+     * @return the budget shared by all detections of the process.
+     */
+    public static synchronized NetworkBudget getInstance(Context c)
+    {
+        if(instance == null)
+            instance = new NetworkBudget(c.getApplicationContext());
+        return instance;
+    }
+
+    private NetworkBudget(Context c)
+    {
+        context = c;
+        prefs = c.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        hourStart = prefs.getLong("hourStart", 0);
+        dayStart = prefs.getLong("dayStart", 0);
+        hourRequests = prefs.getInt("hourRequests", 0);
+        dayRequests = prefs.getInt("dayRequests", 0);
+        hourBytes = prefs.getLong("hourBytes", 0);
+        dayBytes = prefs.getLong("dayBytes", 0);
+        hourWakeups = prefs.getInt("hourWakeups", 0);
+        dayWakeups = prefs.getInt("dayWakeups", 0);
+    }
+
+    /**
+     * Reserve budget for a networked probe.
+     * @param requests number of requests (DNS queries, HTTP requests) the probe will send
+     * @param bytes estimated number of bytes sent and received
+     * @return true if the probe can run, its usage is then counted.
+     */
+    public synchronized boolean tryAcquire(int requests, long bytes)
+    {
+        roll(System.currentTimeMillis());
+        final int wakeups = isRadioActive() ? 0 : 1;
+        if(hourRequests + requests > maxRequestsPerHour || dayRequests + requests > maxRequestsPerDay ||
+                hourBytes + bytes > maxBytesPerHour || dayBytes + bytes > maxBytesPerDay ||
+                hourWakeups + wakeups > maxWakeupsPerHour || dayWakeups + wakeups > maxWakeupsPerDay)
+            return false;
+
+        hourRequests += requests;
+        dayRequests += requests;
+        hourBytes += bytes;
+        dayBytes += bytes;
+        hourWakeups += wakeups;
+        dayWakeups += wakeups;
+        lastNetworkUse = SystemClock.elapsedRealtime();
+        save();
+        return true;
+    }
+
+    /**
+     * Tell the budget that the application just used the network, so that
+     * probes running in the next seconds do not count as radio wakeups.
+     */
+    public synchronized void notifyNetworkUsed()
+    {
+        lastNetworkUse = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return true if the radio is probably in high power state.
+     */
+    private boolean isRadioActive()
+    {
+        if(lastNetworkUse != 0 && SystemClock.elapsedRealtime() - lastNetworkUse < RADIO_TAIL_MS)
+            return true;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+        {
+            final ConnectivityManager cm = (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return cm != null && cm.isDefaultNetworkActive();
+        }
+        return false;
+    }
+
+    private void roll(long now)
+    {
+        if(now < hourStart || now - hourStart >= HOUR_MS)
+        {
+            hourStart = now;
+            hourRequests = 0;
+            hourBytes = 0;
+            hourWakeups = 0;
+        }
+        if(now < dayStart || now - dayStart >= DAY_MS)
+        {
+            dayStart = now;
+            dayRequests = 0;
+            dayBytes = 0;
+            dayWakeups = 0;
+        }
+    }
+
+    private void save()
+    {
+        prefs.edit()
+            .putLong("hourStart", hourStart)
+            .putLong("dayStart", dayStart)
+            .putInt("hourRequests", hourRequests)
+            .putInt("dayRequests", dayRequests)
+            .putLong("hourBytes", hourBytes)
+            .putLong("dayBytes", dayBytes)
+            .putInt("hourWakeups", hourWakeups)
+            .putInt("dayWakeups", dayWakeups)
+            .apply();
+    }
+
+    public synchronized void setRequestLimits(int perHour, int perDay)
+    {
+        maxRequestsPerHour = perHour;
+        maxRequestsPerDay = perDay;
+    }
+
+    public synchronized void setByteLimits(long perHour, long perDay)
+    {
+        maxBytesPerHour = perHour;
+        maxBytesPerDay = perDay;
+    }
+
+    /**
+     * Number of times probes may wake the radio up.
+     * Set to 0 to run networked probes only when the radio is already active.
+     */
+    public synchronized void setWakeupLimits(int perHour, int perDay)
+    {
+        maxWakeupsPerHour = perHour;
+        maxWakeupsPerDay = perDay;
+    }
+
+}
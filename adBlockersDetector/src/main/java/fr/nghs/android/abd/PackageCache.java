@@ -0,0 +1,156 @@
+/*
+ * PackageCache.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.util.List;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+/**
+ * Process-wide cache of the "is a known ad blocker installed" answer.
+ * The installed package list is read once, then only when a package
+ * is added, removed or replaced, so steady-state lookups neither
+ * allocate nor throw NameNotFoundException for every missing package.
+ */
+final class PackageCache
+{
+
+    private static final Object lock = new Object();
+
+    /** Bumped each time the installed package list changes. */
+    private static volatile int generation = 0;
+    private static boolean receiverRegistered = false;
+
+    /** Id of the signatures the cached answer was computed for. */
+    private static int cachedSignatures = -1;
+    private static int cachedGeneration = -1;
+    /** Preferred installed ad blocker package, or null. */
+    private static String cachedMatch = null;
+
+    /**
+     * @param c context used to query the package manager
+     * @param sig package names to search
+     * @return the preferred installed package of sig, or null if none is installed.
+     */
+    static String findInstalled(Context c, Signatures sig)
+    {
+        synchronized(lock)
+        {
+            final boolean canCache = registerReceiver(c);
+            final int gen = generation;
+            if(canCache && cachedSignatures == sig.id && cachedGeneration == gen)
+                return cachedMatch;
+
+            final String match = scan(c, sig);
+            if(canCache)
+            {
+                cachedSignatures = sig.id;
+                cachedGeneration = gen;
+                cachedMatch = match;
+            }
+            return match;
+        }
+    }
+
+    private static String scan(Context c, Signatures sig)
+    {
+        final PackageManager pm = c.getPackageManager();
+        List<ApplicationInfo> apps = null;
+        try
+        {
+            apps = pm.getInstalledApplications(0);
+        }
+        catch(RuntimeException e) // package list too large for the binder transaction
+        {
+        }
+
+        if(apps != null)
+        {
+            int best = Integer.MAX_VALUE;
+            for(final ApplicationInfo a : apps)
+            {
+                final Integer rank = sig.appRanks.get(a.packageName);
+                if(rank != null && rank < best)
+                    best = rank;
+            }
+            return (best == Integer.MAX_VALUE) ? null : sig.appNames[best];
+        }
+
+        // fallback: one query per package
+        for(final String n : sig.appNames)
+        {
+            try
+            {
+                if(pm.getPackageInfo(n, 0) != null)
+                    return n;
+            }
+            catch(Exception e) // PackageManager.NameNotFoundException
+            {
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Register the package change receiver once per process.
+     * @return true if the receiver is registered (ie. cached answers can be trusted).
+     */
+    private static boolean registerReceiver(Context c)
+    {
+        if(!receiverRegistered)
+        {
+            try
+            {
+                final Context app = c.getApplicationContext();
+                final IntentFilter f = new IntentFilter();
+                f.addAction(Intent.ACTION_PACKAGE_ADDED);
+                f.addAction(Intent.ACTION_PACKAGE_REMOVED);
+                f.addAction(Intent.ACTION_PACKAGE_REPLACED);
+                f.addAction(Intent.ACTION_PACKAGE_CHANGED);
+                f.addDataScheme("package");
+                (app != null ? app : c).registerReceiver(new ChangeReceiver(), f);
+                receiverRegistered = true;
+            }
+            catch(RuntimeException e) // eg. context is itself a receiver
+            {
+            }
+        }
+        return receiverRegistered;
+    }
+
+    private static final class ChangeReceiver extends BroadcastReceiver
+    {
+        @Override
+        public void onReceive(Context context, Intent intent)
+        {
+            ++generation;
+        }
+    }
+
+    private PackageCache() {}
+
+}
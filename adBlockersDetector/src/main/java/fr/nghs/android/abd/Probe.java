@@ -0,0 +1,76 @@
+/*
+ * Probe.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+/**
+ * A detection method.
+ * <p>
+ * Built-in probes look for known packages, hosts file entries, locally
+ * resolved ad servers and local filtering proxies. Custom probes can be
+ * added with {@link AdBlockersDetector#addProbe(Probe)}: they are scheduled
+ * with the built-in ones, cheapest first, and the detection stops at the
+ * first probe finding an ad blocker.
+ */
+public interface Probe
+{
+
+    /**
+     * What running a probe costs, probes are run by increasing cost.
+     */
+    enum Cost
+    {
+        /** Only reads memory */
+        MEMORY,
+        /** Reads local files */
+        LOCAL_IO,
+        /** Queries system services */
+        IPC,
+        /** Sends network requests, only run when networking is allowed */
+        NETWORK
+    }
+
+    /**
+     * @return identifier reported in {@link AdBlockersDetector.Info#methodId}
+     * when this probe finds an ad blocker. Built-in probes use the names of
+     * {@link AdBlockersDetector.Method}, custom probes should use another name.
+     */
+    String getId();
+
+    Cost getCost();
+
+    /**
+     * @return true if the probe can run at the same time as other probes.
+     * Parallel-safe IPC and network probes of the same cost are run concurrently.
+     */
+    boolean isParallelSafe();
+
+    /**
+     * Run the probe. Called in a background thread.
+     * Long running probes should check {@link ProbeContext#isCancelled()} and
+     * register the connections they open.
+     * @param ctx detection context
+     * @param info when an ad blocker is found, details1 and details2 should be set
+     * @return true if an ad blocker is found.
+     */
+    boolean run(ProbeContext ctx, AdBlockersDetector.Info info);
+
+}
@@ -0,0 +1,132 @@
+/*
+ * ProbeContext.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+/**
+ * What a {@link Probe} can use while running.
+ */
+public final class ProbeContext
+{
+
+    private final ProbeContext root;
+    Signatures signatures;
+    Environment environment;
+    Cancellation cancellation;
+    NetworkBudget budget;
+    /** Notified of probe results, may be null */
+    ProbeObserver observer;
+    /** Set on the root context when a probe was refused network budget */
+    volatile boolean degraded;
+    /** Result holder used when the caller does not give one */
+    final AdBlockersDetector.Info scratch = new AdBlockersDetector.Info();
+
+    ProbeContext()
+    {
+        root = this;
+    }
+
+    private ProbeContext(ProbeContext parent, Cancellation c)
+    {
+        root = parent.root;
+        signatures = parent.signatures;
+        environment = parent.environment;
+        budget = parent.budget;
+        observer = parent.observer;
+        cancellation = c;
+    }
+
+    void reset(Signatures sig, Environment env, Cancellation cancel, NetworkBudget b, ProbeObserver o)
+    {
+        signatures = sig;
+        environment = env;
+        cancellation = cancel;
+        budget = b;
+        observer = o;
+        degraded = false;
+    }
+
+    /**
+     * @return a context sharing everything but the cancellation.
+     */
+    ProbeContext withCancellation(Cancellation c)
+    {
+        return new ProbeContext(this, c);
+    }
+
+    boolean isDegraded()
+    {
+        return root.degraded;
+    }
+
+    /**
+     * @return the signatures snapshot used by the whole detection.
+     */
+    public Signatures getSignatures()
+    {
+        return signatures;
+    }
+
+    public Environment getEnvironment()
+    {
+        return environment;
+    }
+
+    /**
+     * @return true if the probe should stop: the detection is cancelled
+     * or another probe already found an ad blocker.
+     */
+    public boolean isCancelled()
+    {
+        return cancellation.isCancelled();
+    }
+
+    /**
+     * Register a Future, an HttpURLConnection or a Closeable to release on cancellation.
+     * Resources must be unregistered once released by the probe.
+     */
+    public void register(Object resource)
+    {
+        cancellation.register(resource);
+    }
+
+    public void unregister(Object resource)
+    {
+        cancellation.unregister(resource);
+    }
+
+    /**
+     * Network probes must call this before sending requests.
+     * @param requests number of requests the probe will send
+     * @param bytes estimated number of bytes sent and received
+     * @return true if the requests can be sent.
+     * @see NetworkBudget#tryAcquire(int, long)
+     */
+    public boolean acquireNetworkBudget(int requests, long bytes)
+    {
+        final NetworkBudget b = budget;
+        if(b == null || b.tryAcquire(requests, bytes))
+            return true;
+        root.degraded = true;
+        return false;
+    }
+
+}
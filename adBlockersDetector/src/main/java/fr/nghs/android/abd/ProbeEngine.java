@@ -0,0 +1,228 @@
+/*
+ * ProbeEngine.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs probes by increasing cost, stopping at the first positive one
+ * unless asked to run them all.
+ * Consecutive parallel-safe probes of the same IPC or network cost are
+ * run concurrently; the first positive one cancels the others.
+ */
+final class ProbeEngine
+{
+
+    private static final int MAX_PROBE_THREADS = 32;
+
+    /**
+     * Runs the probes of parallel groups. Probes of cancelled groups keep
+     * their thread until they end; once the cap is reached, probes run in
+     * the detection thread, one after the other.
+     */
+    private static final ExecutorService EXECUTOR;
+    static
+    {
+        EXECUTOR = new ThreadPoolExecutor(0, MAX_PROBE_THREADS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        final Thread t = new Thread(r, "abd-probe");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Sort probes by cost, keeping the given order for probes of the same cost.
+     */
+    static Probe[] schedule(ArrayList<Probe> probes, boolean networking)
+    {
+        final ArrayList<Probe> r = new ArrayList<>(probes.size());
+        for(final Probe.Cost c : Probe.Cost.values())
+        {
+            if(c == Probe.Cost.NETWORK && !networking)
+                continue;
+            for(final Probe p : probes)
+                if(p.getCost() == c)
+                    r.add(p);
+        }
+        return r.toArray(new Probe[r.size()]);
+    }
+
+    /**
+     * @param probes probes returned by schedule()
+     * @return true if a probe found an ad blocker, info then tells which one.
+     */
+    static boolean run(Probe[] probes, ProbeContext ctx, AdBlockersDetector.Info info)
+    {
+        return run(probes, ctx, info, false);
+    }
+
+    /**
+     * @param exhaustive true to run the remaining probes after a positive one,
+     * for diagnostics; info still describes the first positive probe.
+     * @return true if a probe found an ad blocker, info then tells which one.
+     */
+    static boolean run(Probe[] probes, ProbeContext ctx, AdBlockersDetector.Info info, boolean exhaustive)
+    {
+        boolean found = false;
+        int i = 0;
+        while(i < probes.length && !ctx.isCancelled())
+        {
+            final Probe p = probes[i];
+            int j = i + 1;
+            if(p.isParallelSafe() && p.getCost().compareTo(Probe.Cost.IPC) >= 0)
+                while(j < probes.length && probes[j].getCost() == p.getCost() && probes[j].isParallelSafe())
+                    ++j;
+
+            // once found, later positive probes must not overwrite the verdict
+            if(j - i > 1 ? runParallel(probes, i, j, ctx, found ? null : info, exhaustive)
+                    : runOne(p, ctx, found ? null : info))
+            {
+                if(!exhaustive)
+                    return true;
+                found = true;
+            }
+            i = j;
+        }
+        return found;
+    }
+
+    /**
+     * @param info filled with the verdict, null if it is already known
+     */
+    private static boolean runOne(Probe p, ProbeContext ctx, AdBlockersDetector.Info info)
+    {
+        if(runProbe(p, ctx, (info != null) ? info : AdBlockersDetector.newInfo()) && !ctx.isCancelled())
+        {
+            if(info != null)
+                setVerdict(ctx, info, p);
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean runProbe(Probe p, ProbeContext ctx, AdBlockersDetector.Info info)
+    {
+        final long start = System.nanoTime();
+        boolean r = false;
+        try
+        {
+            r = p.run(ctx, info);
+        }
+        catch(RuntimeException e) // a failing probe does not stop the detection
+        {
+        }
+        final ProbeObserver o = ctx.observer;
+        if(o != null)
+            o.onProbeResult(p, r, System.nanoTime() - start);
+        return r;
+    }
+
+    private static boolean runParallel(Probe[] probes, int from, int to, ProbeContext ctx, AdBlockersDetector.Info info,
+            boolean exhaustive)
+    {
+        final Cancellation group = new Cancellation();
+        ctx.cancellation.register(group);
+        final ProbeContext gctx = ctx.withCancellation(group);
+        final CompletionService<Integer> cs = new ExecutorCompletionService<>(EXECUTOR);
+        final AdBlockersDetector.Info[] results = new AdBlockersDetector.Info[to - from];
+        try
+        {
+            for(int k = from; k < to; ++k)
+            {
+                final Probe p = probes[k];
+                final int index = k - from;
+                final AdBlockersDetector.Info r = AdBlockersDetector.newInfo();
+                results[index] = r;
+                final Future<Integer> f = cs.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call()
+                    {
+                        return runProbe(p, gctx, r) ? index : -1;
+                    }
+                });
+                group.register(f);
+            }
+            boolean found = false;
+            for(int k = from; k < to && !ctx.isCancelled(); ++k)
+            {
+                final int index = cs.take().get();
+                if(index >= 0 && !found && !ctx.isCancelled())
+                {
+                    found = true;
+                    if(info == null)
+                        continue;
+                    info.details1 = results[index].details1;
+                    info.details2 = results[index].details2;
+                    setVerdict(ctx, info, probes[from + index]);
+                    if(!exhaustive)
+                        return true;
+                }
+            }
+            return found;
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(ExecutionException | CancellationException e)
+        {
+        }
+        finally
+        {
+            // stop the probes still running
+            group.cancel();
+            ctx.cancellation.unregister(group);
+        }
+        return false;
+    }
+
+    private static void setVerdict(ProbeContext ctx, AdBlockersDetector.Info info, Probe p)
+    {
+        final String id = p.getId();
+        info.methodId = id;
+        info.method = AdBlockersDetector.Method.fromId(id);
+        final ProbeObserver o = ctx.observer;
+        if(o != null)
+            o.onVerdict(info);
+    }
+
+    private ProbeEngine() {}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * ProbeObserver.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+/**
+ * Notified by the engine each time a probe ends, and of the verdict.
+ */
+interface ProbeObserver
+{
+    /**
+     * Called in the thread that ran the probe.
+     * @param found true if the probe found an ad blocker
+     * @param elapsedNanos time spent in the probe
+     */
+    void onProbeResult(Probe probe, boolean found, long elapsedNanos);
+
+    /**
+     * Called in the thread that ran the probe, once the first positive
+     * probe is known, before the remaining probes are cancelled or run.
+     * @param info verdict, still owned by the detection
+     */
+    void onVerdict(AdBlockersDetector.Info info);
+}
@@ -0,0 +1,161 @@
+/*
+ * ProgressDispatcher.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package fr.nghs.android.abd;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Forwards probe results and the verdict of a detection to a
+ * {@link AdBlockersDetector.ProgressCallback} in the GUI thread.
+ * Probe results are batched: a single message is posted until the GUI
+ * thread drains the queue. The verdict is posted at the front of the queue
+ * so that it is not delayed by other GUI work.
+ */
+final class ProgressDispatcher implements ProbeObserver, Runnable
+{
+
+    private static final class Event
+    {
+        final Probe probe;
+        final boolean found;
+        final long elapsedMs;
+
+        Event(Probe p, boolean f, long ms)
+        {
+            probe = p;
+            found = f;
+            elapsedMs = ms;
+        }
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final WeakReference<AdBlockersDetector.ProgressCallback> callback;
+    private final Cancellation cancel;
+
+    /** Guarded by this */
+    private ArrayList<Event> pending = new ArrayList<>();
+    private boolean posted = false;
+    private boolean verdictKnown = false;
+    private boolean verdictSent = false;
+    private boolean found;
+    private AdBlockersDetector.Info verdict;
+
+    ProgressDispatcher(AdBlockersDetector.ProgressCallback c, Cancellation cancel)
+    {
+        callback = new WeakReference<>(c);
+        this.cancel = cancel;
+    }
+
+    @Override
+    public void onProbeResult(Probe probe, boolean f, long elapsedNanos)
+    {
+        synchronized(this)
+        {
+            pending.add(new Event(probe, f, elapsedNanos / 1000000));
+            if(posted)
+                return;
+            posted = true;
+        }
+        handler.post(this);
+    }
+
+    @Override
+    public void onVerdict(AdBlockersDetector.Info info)
+    {
+        // copied: remaining probes may still be running for diagnostics
+        setVerdict(true, copy(info));
+        handler.removeCallbacks(this);
+        handler.postAtFrontOfQueue(this);
+    }
+
+    /**
+     * Called in the GUI thread when the detection ends:
+     * delivers what is still pending, including the verdict if not done yet.
+     */
+    void finish(boolean f, AdBlockersDetector.Info info)
+    {
+        setVerdict(f, info);
+        handler.removeCallbacks(this);
+        run();
+    }
+
+    void clear()
+    {
+        callback.clear();
+        handler.removeCallbacks(this);
+    }
+
+    private synchronized void setVerdict(boolean f, AdBlockersDetector.Info info)
+    {
+        if(verdictKnown)
+            return;
+        verdictKnown = true;
+        found = f;
+        verdict = info;
+        posted = true;
+    }
+
+    /**
+     * Delivers pending events, in the GUI thread.
+     */
+    @Override
+    public void run()
+    {
+        final ArrayList<Event> events;
+        boolean sendVerdict = false;
+        synchronized(this)
+        {
+            events = pending;
+            pending = new ArrayList<>();
+            posted = false;
+            if(verdictKnown && !verdictSent)
+            {
+                verdictSent = true;
+                sendVerdict = true;
+            }
+        }
+        final AdBlockersDetector.ProgressCallback c = callback.get();
+        if(c == null || cancel.isCancelled())
+            return;
+        for(final Event e : events)
+            c.onProbeResult(e.probe, e.found, e.elapsedMs);
+        if(sendVerdict)
+            c.onVerdict(found, verdict);
+    }
+
+    private static AdBlockersDetector.Info copy(AdBlockersDetector.Info info)
+    {
+        final AdBlockersDetector.Info r = new AdBlockersDetector.Info();
+        r.method = info.method;
+        r.methodId = info.methodId;
+        r.details1 = info.details1;
+        r.details2 = info.details2;
+        r.degraded = info.degraded;
+        return r;
+    }
+
+}
@@ -0,0 +1,321 @@
+/*
+ * RecordingEnvironment.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Environment recording everything read from another one into a {@link Trace}.
+ */
+final class RecordingEnvironment implements Environment, ProbeObserver
+{
+
+    private final Environment env;
+    private final Trace trace;
+
+    RecordingEnvironment(Environment env, Trace trace)
+    {
+        this.env = env;
+        this.trace = trace;
+    }
+
+    private static String micros(long startNanos)
+    {
+        return Long.toString((System.nanoTime() - startNanos) / 1000);
+    }
+
+    @Override
+    public void onProbeResult(Probe probe, boolean found, long elapsedNanos)
+    {
+        trace.add(Trace.PROBE, probe.getId(), Long.toString(elapsedNanos / 1000), found ? "1" : "0");
+    }
+
+    @Override
+    public void onVerdict(AdBlockersDetector.Info info)
+    {
+        // recorded once the detection ends
+    }
+
+    @Override
+    public String findInstalledPackage(Signatures sig)
+    {
+        final long start = System.nanoTime();
+        final String r = env.findInstalledPackage(sig);
+        trace.add(Trace.PACKAGE, micros(start), r);
+        return r;
+    }
+
+    @Override
+    public File[] getHostsFiles()
+    {
+        return env.getHostsFiles();
+    }
+
+    /**
+     * Record hosts files identity and digest.
+     * Called in a background thread once the detection ended, so digesting
+     * delays neither the verdict nor probe timings.
+     */
+    void recordHostsFiles()
+    {
+        for(final File f : env.getHostsFiles())
+        {
+            final boolean readable = f.canRead();
+            trace.add(Trace.HOSTS, f.getPath(), readable ? "1" : "0",
+                    Long.toString(f.length()), Long.toString(f.lastModified()),
+                    readable ? digest(f) : null);
+        }
+    }
+
+    @Override
+    public InetAddress resolve(String hostName) throws IOException
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            final InetAddress a = env.resolve(hostName);
+            trace.add(Trace.DNS, hostName, micros(start), (a == null) ? null : a.getHostAddress());
+            return a;
+        }
+        catch(IOException e)
+        {
+            trace.add(Trace.DNS, hostName, micros(start), null);
+            throw e;
+        }
+    }
+
+    @Override
+    public ProxySelector getProxySelector()
+    {
+        final ProxySelector ps = env.getProxySelector();
+        if(ps == null)
+            return null;
+        return new ProxySelector()
+        {
+            @Override
+            public List<Proxy> select(URI uri)
+            {
+                final List<Proxy> r = ps.select(uri);
+                final StringBuilder sb = new StringBuilder();
+                if(r != null)
+                {
+                    for(final Proxy p : r)
+                    {
+                        if(sb.length() > 0)
+                            sb.append(',');
+                        sb.append(p.type().name());
+                        if(p.address() instanceof InetSocketAddress)
+                        {
+                            final InetSocketAddress a = (InetSocketAddress)p.address();
+                            sb.append('@')
+                                .append(a.getAddress() != null ? a.getAddress().getHostAddress() : a.getHostName())
+                                .append(':').append(a.getPort());
+                        }
+                    }
+                }
+                trace.add(Trace.PROXY, uri.toString(), sb.toString());
+                return r;
+            }
+
+            @Override
+            public void connectFailed(URI uri, SocketAddress sa, IOException ioe)
+            {
+                ps.connectFailed(uri, sa, ioe);
+            }
+        };
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException
+    {
+        return new RecordingConnection(env.openConnection(url));
+    }
+
+    private static String digest(File f)
+    {
+        FileInputStream in = null;
+        try
+        {
+            final MessageDigest md = MessageDigest.getInstance("SHA-1");
+            in = new FileInputStream(f);
+            final byte[] buf = new byte[8192];
+            int n;
+            while( (n = in.read(buf)) > 0 )
+                md.update(buf, 0, n);
+            final StringBuilder sb = new StringBuilder();
+            for(final byte b : md.digest())
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return sb.toString();
+        }
+        catch(IOException | NoSuchAlgorithmException e)
+        {
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                if(in != null)
+                    in.close();
+            }
+            catch (IOException e) { }
+        }
+    }
+
+    /**
+     * Times the request and counts the bytes read, recorded on disconnect().
+     */
+    private final class RecordingConnection extends HttpURLConnection
+    {
+        private final HttpURLConnection c;
+        private final long start = System.nanoTime();
+        private long elapsed = -1;
+        private int code = -1;
+        private int bytes = 0;
+        private boolean recorded = false;
+
+        RecordingConnection(HttpURLConnection c)
+        {
+            super(c.getURL());
+            this.c = c;
+        }
+
+        @Override
+        public void connect() throws IOException
+        {
+            c.connect();
+        }
+
+        @Override
+        public int getResponseCode() throws IOException
+        {
+            try
+            {
+                code = c.getResponseCode();
+                return code;
+            }
+            finally
+            {
+                elapsed = System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            return new FilterInputStream(c.getInputStream())
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    final int b = super.read();
+                    if(b >= 0)
+                        ++bytes;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buf, int off, int len) throws IOException
+                {
+                    final int n = super.read(buf, off, len);
+                    if(n > 0)
+                        bytes += n;
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void disconnect()
+        {
+            c.disconnect();
+            synchronized(this)
+            {
+                if(recorded)
+                    return;
+                recorded = true;
+            }
+            trace.add(Trace.HTTP, url.toString(),
+                    Long.toString(((elapsed < 0) ? System.nanoTime() - start : elapsed) / 1000),
+                    Integer.toString(code), Integer.toString(bytes));
+        }
+
+        @Override
+        public boolean usingProxy()
+        {
+            return c.usingProxy();
+        }
+
+        @Override
+        public void setConnectTimeout(int timeout)
+        {
+            c.setConnectTimeout(timeout);
+        }
+
+        @Override
+        public void setReadTimeout(int timeout)
+        {
+            c.setReadTimeout(timeout);
+        }
+
+        @Override
+        public void setRequestMethod(String method) throws ProtocolException
+        {
+            c.setRequestMethod(method);
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value)
+        {
+            c.setRequestProperty(key, value);
+        }
+
+        @Override
+        public String getHeaderField(String name)
+        {
+            return c.getHeaderField(name);
+        }
+
+        @Override
+        public String getHeaderField(int n)
+        {
+            return c.getHeaderField(n);
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * ReplayEnvironment.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulated device answering as recorded in a {@link Trace}, with the
+ * recorded latencies, to turn field traces into reproducible benchmarks:
+ * <pre>
+ * final ReplayEnvironment env = new ReplayEnvironment(Trace.read(reader), 1.0, getCacheDir());
+ * abd.setEnvironment(env);
+ * abd.detectAdBlockers(info);
+ * </pre>
+ * Latencies are multiplied by a time scale. With a scale of 0, nothing
+ * sleeps and time is only accounted for in {@link #getVirtualTimeMs()}.
+ * <p>
+ * The hosts file is replaced by a synthetic file of the recorded size,
+ * holding the matching line if the hosts file probe found one.
+ */
+public final class ReplayEnvironment implements Environment
+{
+
+    private final double timeScale;
+    private final AtomicLong virtualMicros = new AtomicLong();
+
+    private final String[] packageAnswer;
+    private final File[] hostsFiles;
+    private final HashMap<String, String[]> dns = new HashMap<>();
+    private final List<Proxy> proxies;
+    private final HashMap<String, String[]> http = new HashMap<>();
+
+    /**
+     * @param trace recorded detection
+     * @param timeScale latency multiplier, 0 for virtual time
+     * @param tmpDir where the synthetic hosts file is written
+     */
+    public ReplayEnvironment(Trace trace, double timeScale, File tmpDir) throws IOException
+    {
+        this.timeScale = timeScale;
+
+        final List<String[]> pkg = trace.get(Trace.PACKAGE);
+        packageAnswer = pkg.isEmpty() ? null : pkg.get(0);
+
+        String matchingLine = null;
+        for(final String[] v : trace.get(Trace.VERDICT))
+            if(AdBlockersDetector.Method.BY_HOSTS_FILE.name().equals(v[1]))
+                matchingLine = v[3];
+        final ArrayList<File> files = new ArrayList<>();
+        for(final String[] h : trace.get(Trace.HOSTS))
+            if("1".equals(h[1]))
+                files.add(synthesizeHostsFile(tmpDir, Long.parseLong(h[2]), matchingLine));
+        hostsFiles = files.toArray(new File[files.size()]);
+
+        for(final String[] d : trace.get(Trace.DNS))
+            dns.put(d[0], d);
+
+        final List<String[]> px = trace.get(Trace.PROXY);
+        proxies = px.isEmpty() ? null : parseProxies(px.get(0)[1]);
+
+        for(final String[] h : trace.get(Trace.HTTP))
+            http.put(h[0], h);
+    }
+
+    /**
+     * @return the sum of all replayed latencies, in milliseconds.
+     * Probes running in parallel are counted as if run sequentially.
+     */
+    public long getVirtualTimeMs()
+    {
+        return virtualMicros.get() / 1000;
+    }
+
+    private void delay(String micros) throws InterruptedIOException
+    {
+        final long us = Long.parseLong(micros);
+        virtualMicros.addAndGet(us);
+        if(timeScale <= 0)
+            return;
+        final long ns = (long)(us * 1000 * timeScale);
+        try
+        {
+            Thread.sleep(ns / 1000000, (int)(ns % 1000000));
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public String findInstalledPackage(Signatures sig)
+    {
+        if(packageAnswer == null)
+            return null;
+        try
+        {
+            delay(packageAnswer[0]);
+        }
+        catch(InterruptedIOException e)
+        {
+        }
+        return packageAnswer[1];
+    }
+
+    @Override
+    public File[] getHostsFiles()
+    {
+        return hostsFiles;
+    }
+
+    @Override
+    public InetAddress resolve(String hostName) throws IOException
+    {
+        final String[] d = dns.get(hostName);
+        if(d == null)
+            throw new UnknownHostException(hostName);
+        delay(d[1]);
+        if(d[2] == null)
+            throw new UnknownHostException(hostName);
+        return InetAddress.getByName(d[2]); // numeric, no lookup
+    }
+
+    @Override
+    public ProxySelector getProxySelector()
+    {
+        if(proxies == null)
+            return null;
+        return new ProxySelector()
+        {
+            @Override
+            public List<Proxy> select(URI uri)
+            {
+                return proxies;
+            }
+
+            @Override
+            public void connectFailed(URI uri, SocketAddress sa, IOException ioe)
+            {
+            }
+        };
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException
+    {
+        final String[] h = http.get(url.toString());
+        if(h == null)
+            throw new IOException("Not in trace: " + url);
+        return new ReplayConnection(url, h);
+    }
+
+    private static List<Proxy> parseProxies(String s) throws IOException
+    {
+        final ArrayList<Proxy> r = new ArrayList<>();
+        if(s == null || s.length() == 0)
+            return r;
+        for(final String p : s.split(","))
+        {
+            final int at = p.indexOf('@');
+            final Proxy.Type type = Proxy.Type.valueOf(at < 0 ? p : p.substring(0, at));
+            if(type == Proxy.Type.DIRECT)
+            {
+                r.add(Proxy.NO_PROXY);
+                continue;
+            }
+            final String addr = p.substring(at + 1);
+            final int colon = addr.lastIndexOf(':');
+            r.add(new Proxy(type, new InetSocketAddress(InetAddress.getByName(addr.substring(0, colon)),
+                    Integer.parseInt(addr.substring(colon + 1)))));
+        }
+        return Collections.unmodifiableList(r);
+    }
+
+    private static File synthesizeHostsFile(File dir, long size, String matchingLine) throws IOException
+    {
+        final File f = File.createTempFile("hosts", ".replay", dir);
+        f.deleteOnExit();
+        final BufferedWriter out = new BufferedWriter(new FileWriter(f));
+        try
+        {
+            long written = 0;
+            final long fillerSize = size - ((matchingLine == null) ? 0 : matchingLine.length() + 1);
+            for(int i = 0; written < fillerSize; ++i)
+            {
+                String ln = "0.0.0.0 host" + i + ".replay.invalid\n";
+                if(written + ln.length() > fillerSize)
+                    ln = "#" + "                                ".substring(0,
+                            (int)Math.max(0, Math.min(32, fillerSize - written - 2))) + "\n";
+                out.write(ln);
+                written += ln.length();
+            }
+            if(matchingLine != null)
+            {
+                out.write(matchingLine);
+                out.write('\n');
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return f;
+    }
+
+    /**
+     * Answers with the recorded code and number of bytes.
+     */
+    private final class ReplayConnection extends HttpURLConnection
+    {
+        private final String[] record;
+        private boolean done = false;
+
+        ReplayConnection(URL url, String[] record)
+        {
+            super(url);
+            this.record = record;
+        }
+
+        @Override
+        public void connect() throws IOException
+        {
+            if(!done)
+            {
+                done = true;
+                delay(record[1]);
+            }
+        }
+
+        @Override
+        public int getResponseCode() throws IOException
+        {
+            connect();
+            final int code = Integer.parseInt(record[2]);
+            if(code < 0)
+                throw new IOException("Recorded failure");
+            return code;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            connect();
+            return new ByteArrayInputStream(new byte[Integer.parseInt(record[3])]);
+        }
+
+        @Override
+        public void disconnect()
+        {
+        }
+
+        @Override
+        public boolean usingProxy()
+        {
+            return proxies != null;
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * SharedVerdict.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+/**
+ * A detection result shared between applications of a publisher family.
+ * @see SharedVerdicts
+ */
+public final class SharedVerdict
+{
+
+    /** Version of the sharing protocol implemented by this library */
+    public static final int PROTOCOL_VERSION = 1;
+    /** Oldest protocol version this library can read */
+    public static final int MIN_PROTOCOL_VERSION = 1;
+
+    public final int protocolVersion;
+    public final boolean found;
+    /** Identifier of the probe that found the ad blocker, see {@link AdBlockersDetector.Info#methodId} */
+    public final String method;
+    public final String details1;
+    public final String details2;
+    public final boolean degraded;
+    /** System.currentTimeMillis() when the verdict was computed */
+    public final long timestamp;
+    /** Device state the verdict was computed on, see {@link SharedVerdicts#fingerprint} */
+    public final String fingerprint;
+
+    public SharedVerdict(int protocolVersion, boolean found, String method, String details1, String details2,
+            boolean degraded, long timestamp, String fingerprint)
+    {
+        this.protocolVersion = protocolVersion;
+        this.found = found;
+        this.method = method;
+        this.details1 = details1;
+        this.details2 = details2;
+        this.degraded = degraded;
+        this.timestamp = timestamp;
+        this.fingerprint = fingerprint;
+    }
+
+}
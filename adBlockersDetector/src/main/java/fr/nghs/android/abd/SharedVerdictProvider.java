@@ -0,0 +1,164 @@
+/*
+ * SharedVerdictProvider.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+/**
+ * Exposes the verdicts of this application to its siblings.
+ * The library does not declare it: each application of the family that
+ * opts in declares it in its manifest, protected by a signature permission
+ * whose name is common to the family, so only applications signed with the
+ * same key can read or publish (see the README). Without read and write
+ * permissions, the provider answers nothing and ignores publications.
+ * <p>
+ * Content URI: content://&lt;package&gt;.abd.verdict/verdict?protocol=&lt;reader version&gt;
+ */
+public class SharedVerdictProvider extends ContentProvider
+{
+
+    /** Suffix appended to the application package to build the authority */
+    public static final String AUTHORITY_SUFFIX = ".abd.verdict";
+    static final String PATH = "verdict";
+    static final String PARAM_PROTOCOL = "protocol";
+
+    static final String COL_PROTOCOL = "protocol";
+    static final String COL_FOUND = "found";
+    static final String COL_METHOD = "method";
+    static final String COL_DETAILS1 = "details1";
+    static final String COL_DETAILS2 = "details2";
+    static final String COL_DEGRADED = "degraded";
+    static final String COL_TIMESTAMP = "timestamp";
+    static final String COL_FINGERPRINT = "fingerprint";
+
+    private static final String[] COLUMNS =
+        {
+        COL_PROTOCOL, COL_FOUND, COL_METHOD, COL_DETAILS1, COL_DETAILS2,
+        COL_DEGRADED, COL_TIMESTAMP, COL_FINGERPRINT
+        };
+
+    static Uri uri(String authority, int protocolVersion)
+    {
+        return new Uri.Builder()
+            .scheme("content")
+            .authority(authority)
+            .appendPath(PATH)
+            .appendQueryParameter(PARAM_PROTOCOL, Integer.toString(protocolVersion))
+            .build();
+    }
+
+    private VerdictStore store()
+    {
+        return VerdictStore.getDefault(getContext());
+    }
+
+    @Override
+    public boolean onCreate()
+    {
+        return true;
+    }
+
+    /**
+     * @return false if the provider was declared without permissions,
+     * in which case any application could read or forge verdicts.
+     */
+    private boolean isProtected()
+    {
+        return getReadPermission() != null && getWritePermission() != null;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+    {
+        final MatrixCursor c = new MatrixCursor(COLUMNS);
+        if(!isProtected())
+            return c;
+        final SharedVerdict v = store().read(protocolOf(uri));
+        if(v != null)
+        {
+            c.addRow(new Object[]
+                {
+                v.protocolVersion, v.found ? 1 : 0, v.method, v.details1, v.details2,
+                v.degraded ? 1 : 0, v.timestamp, v.fingerprint
+                });
+        }
+        return c;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values)
+    {
+        if(!isProtected())
+            return null;
+        final Integer protocol = values.getAsInteger(COL_PROTOCOL);
+        final Long timestamp = values.getAsLong(COL_TIMESTAMP);
+        if(protocol == null || timestamp == null)
+            return null;
+        final Integer found = values.getAsInteger(COL_FOUND);
+        final Integer degraded = values.getAsInteger(COL_DEGRADED);
+        store().publish(new SharedVerdict(protocol,
+                found != null && found != 0,
+                values.getAsString(COL_METHOD),
+                values.getAsString(COL_DETAILS1),
+                values.getAsString(COL_DETAILS2),
+                degraded != null && degraded != 0,
+                timestamp,
+                values.getAsString(COL_FINGERPRINT)));
+        return uri;
+    }
+
+    @Override
+    public String getType(Uri uri)
+    {
+        return null;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs)
+    {
+        return 0;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs)
+    {
+        return 0;
+    }
+
+    private static int protocolOf(Uri uri)
+    {
+        try
+        {
+            final String p = uri.getQueryParameter(PARAM_PROTOCOL);
+            return (p == null) ? SharedVerdict.MIN_PROTOCOL_VERSION : Integer.parseInt(p);
+        }
+        catch(NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * SharedVerdicts.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+
+/**
+ * Share detection results between applications of a publisher family.
+ * <p>
+ * Before probing, the detector reads its own (persisted) store for a
+ * verdict computed recently on the same device state, by this application
+ * or pushed by a sibling. If one is found it is used as is; otherwise the
+ * detection runs and its result is published in the store of this
+ * application, then pushed to the siblings in a background thread.
+ * Siblings are never queried during a detection: a query to an application
+ * that is not running would start its process.
+ * <p>
+ * Each application of the family must declare {@link SharedVerdictProvider}
+ * in its manifest, protected by the signature permission of the family,
+ * and be signed with the same key.
+ */
+public final class SharedVerdicts
+{
+
+    /** Default maximum age of a verdict, 6 hours */
+    public static final long DEFAULT_MAX_AGE_MS = 6 * 60 * 60 * 1000;
+
+    private static final ExecutorService pusher;
+    static
+    {
+        final ThreadPoolExecutor e = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        final Thread t = new Thread(r, "abd-verdict");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+        e.allowCoreThreadTimeOut(true);
+        pusher = e;
+    }
+
+    private final VerdictSource own;
+    private final VerdictSource[] siblings;
+    private final long maxAgeMs;
+
+    /**
+     * @param own where verdicts are read, and where verdicts of this application are published
+     * @param siblings where verdicts of this application are pushed
+     * @param maxAgeMs verdicts older than that are ignored
+     */
+    public SharedVerdicts(VerdictSource own, List<? extends VerdictSource> siblings, long maxAgeMs)
+    {
+        this.own = own;
+        this.siblings = siblings.toArray(new VerdictSource[siblings.size()]);
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * @param c context of this application
+     * @param maxAgeMs verdicts older than that are ignored
+     * @param familyPackages packages of the applications of the family,
+     * this application package is ignored if present.
+     */
+    public static SharedVerdicts forFamily(Context c, long maxAgeMs, String... familyPackages)
+    {
+        final String self = c.getPackageName();
+        final ArrayList<VerdictSource> s = new ArrayList<>(familyPackages.length);
+        for(final String p : familyPackages)
+            if(!p.equals(self))
+                s.add(new ContentVerdictSource(c.getContentResolver(), p + SharedVerdictProvider.AUTHORITY_SUFFIX));
+        return new SharedVerdicts(VerdictStore.getDefault(c), s, maxAgeMs);
+    }
+
+    /**
+     * Device state and configuration a verdict depends on: signatures version
+     * and contents, scheduled probes, preferred installed ad blocker (cached,
+     * see PackageCache) and hosts file identity.
+     * @param scheduledProbes identifiers of the probes a detection would run,
+     * so that a verdict of a detector running fewer probes (e.g. without
+     * networking) is not reused by one running more
+     */
+    static String fingerprint(Signatures sig, String scheduledProbes, Environment env)
+    {
+        final String app = env.findInstalledPackage(sig);
+        final String prefix = sig.getVersion() + "|" + Integer.toHexString(sig.contentHash) + "|"
+                + scheduledProbes + "|" + ((app == null) ? "" : app) + "|";
+        final File[] files = env.getHostsFiles();
+        final int index = HostsFileCache.findReadable(files);
+        if(index < 0)
+            return prefix;
+        final File f = files[index];
+        return prefix + f.getPath() + "|" + f.length() + "|" + f.lastModified();
+    }
+
+    /**
+     * Fill info with a fresh verdict matching fingerprint, if any.
+     * @param knownMethods identifiers of the probes of the reader: a positive
+     * verdict found by another probe is not used.
+     * @return the verdict, or null if none can be used.
+     */
+    SharedVerdict find(String fingerprint, AdBlockersDetector.Info info, String[] knownMethods)
+    {
+        final SharedVerdict v = usable(own.read(SharedVerdict.PROTOCOL_VERSION), fingerprint, knownMethods);
+        if(v != null && info != null)
+        {
+            info.methodId = v.method;
+            info.method = AdBlockersDetector.Method.fromId(v.method);
+            info.details1 = (v.details1 == null) ? "" : v.details1;
+            info.details2 = (v.details2 == null) ? "" : v.details2;
+            info.degraded = v.degraded;
+        }
+        return v;
+    }
+
+    private SharedVerdict usable(SharedVerdict v, String fingerprint, String[] knownMethods)
+    {
+        if(v == null || v.protocolVersion < SharedVerdict.MIN_PROTOCOL_VERSION ||
+                v.protocolVersion > SharedVerdict.PROTOCOL_VERSION)
+            return null;
+        final long age = System.currentTimeMillis() - v.timestamp;
+        if(age < 0 || age > maxAgeMs || !fingerprint.equals(v.fingerprint) || v.method == null)
+            return null;
+        if(!(v.found ? contains(knownMethods, v.method) : AdBlockersDetector.Method.NONE.name().equals(v.method)))
+            return null;
+        return v;
+    }
+
+    private static boolean contains(String[] a, String s)
+    {
+        for(final String e : a)
+            if(e.equals(s))
+                return true;
+        return false;
+    }
+
+    /**
+     * Publish the result of a full detection, and push it to the siblings
+     * in a background thread.
+     * Degraded negative results are not shared, siblings may have a larger budget.
+     */
+    void publish(String fingerprint, boolean found, AdBlockersDetector.Info info)
+    {
+        if(!found && info.degraded)
+            return;
+        final SharedVerdict v = new SharedVerdict(SharedVerdict.PROTOCOL_VERSION, found, info.methodId,
+                info.details1, info.details2, info.degraded, System.currentTimeMillis(), fingerprint);
+        own.publish(v);
+        if(siblings.length > 0)
+        {
+            pusher.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for(final VerdictSource s : siblings)
+                        s.publish(v);
+                }
+            });
+        }
+    }
+
+}
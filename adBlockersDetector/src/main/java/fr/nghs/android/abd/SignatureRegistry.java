@@ -0,0 +1,125 @@
+/*
+ * SignatureRegistry.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide holder of the current {@link Signatures}.
+ * Each detection reads the current snapshot once, without locking, and uses
+ * it until it ends, so a detection running during an update sees a single
+ * consistent version. Replaced snapshots are garbage collected as soon as
+ * the last detection using them ends.
+ */
+public final class SignatureRegistry
+{
+
+    private static final AtomicReference<Signatures> current =
+            new AtomicReference<>(AdBlockersDetector.DEFAULT_SIGNATURES);
+
+    private static final ExecutorService builder;
+    static
+    {
+        final ThreadPoolExecutor e = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        final Thread t = new Thread(r, "abd-signatures");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+        e.allowCoreThreadTimeOut(true);
+        builder = e;
+    }
+
+    /**
+     * @return the snapshot to use for a new detection.
+     */
+    public static Signatures current()
+    {
+        return current.get();
+    }
+
+    /**
+     * Atomically replace the current snapshot.
+     * Snapshots with a version lower than the current one are ignored.
+     * @return true if s is now the current snapshot.
+     */
+    public static boolean publish(Signatures s)
+    {
+        for(;;)
+        {
+            final Signatures old = current.get();
+            if(s.getVersion() < old.getVersion())
+                return false;
+            if(current.compareAndSet(old, s))
+                return true;
+        }
+    }
+
+    /**
+     * Build a new snapshot in a background thread, then publish it.
+     * Lists are copied, they can be modified once this method returns.
+     * @return a future giving the built snapshot.
+     * @see Signatures#Signatures(int, String[], String[], String[], String[])
+     */
+    public static Future<Signatures> update(final int version, String[] appNames, String[] blockedHosts,
+            String[] hostsFilePatterns, String[] httpTestUrls)
+    {
+        final String[] a = appNames.clone();
+        final String[] b = blockedHosts.clone();
+        final String[] p = hostsFilePatterns.clone();
+        final String[] u = httpTestUrls.clone();
+        return builder.submit(new Callable<Signatures>()
+        {
+            @Override
+            public Signatures call()
+            {
+                final Signatures s = new Signatures(version, a, b, p, u);
+                publish(s);
+                return s;
+            }
+        });
+    }
+
+    /**
+     * Go back to the lists built in the library.
+     */
+    public static void reset()
+    {
+        current.set(AdBlockersDetector.DEFAULT_SIGNATURES);
+    }
+
+    private SignatureRegistry() {}
+
+}
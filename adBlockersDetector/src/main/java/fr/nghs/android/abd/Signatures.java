@@ -0,0 +1,240 @@
+/*
+ * Signatures.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable, precompiled set of ad blocker signatures.
+ * A snapshot is built once (package name index, hosts file pattern automaton,
+ * parsed test URLs) and then shared without locking by all detections.
+ * @see SignatureRegistry
+ */
+public final class Signatures
+{
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Unique id of this snapshot, used to key caches. */
+    final int id;
+    /** Version given by the publisher of the lists. */
+    private final int version;
+    /** Hash of the lists, told apart even when their versions are equal. */
+    final int contentHash;
+
+    final String[] appNames;
+    /** Package name -> preference rank in appNames */
+    final HashMap<String, Integer> appRanks;
+    final String[] blockedHosts;
+    final HostsMatcher hostsMatcher;
+    final URI[] testUris;
+    final URL[] testUrls;
+
+    /**
+     * Build a snapshot. This can be slow for large lists and should not be
+     * done in the GUI thread, see {@link SignatureRegistry#update}.
+     * @param version version of the lists, given back by {@link #getVersion()}
+     * @param appNames package names of known ad blockers, by order of preference
+     * @param blockedHosts host names that ad blockers resolve locally
+     * @param hostsFilePatterns patterns to search in the hosts file (case sensitive)
+     * @param httpTestUrls URLs that normally return more than 4 bytes of content
+     * @throws IllegalArgumentException if an URL is malformed
+     */
+    public Signatures(int version, String[] appNames, String[] blockedHosts,
+            String[] hostsFilePatterns, String[] httpTestUrls)
+    {
+        this.id = nextId.getAndIncrement();
+        this.version = version;
+        this.contentHash = ((Arrays.hashCode(appNames) * 31 + Arrays.hashCode(blockedHosts)) * 31
+                + Arrays.hashCode(hostsFilePatterns)) * 31 + Arrays.hashCode(httpTestUrls);
+        this.appNames = appNames.clone();
+        this.appRanks = new HashMap<>(appNames.length * 2);
+        for(int i = appNames.length - 1; i >= 0; --i)
+            appRanks.put(appNames[i], i);
+        this.blockedHosts = blockedHosts.clone();
+        this.hostsMatcher = new HostsMatcher(hostsFilePatterns);
+        this.testUris = new URI[httpTestUrls.length];
+        this.testUrls = new URL[httpTestUrls.length];
+        for(int i = 0; i < httpTestUrls.length; ++i)
+        {
+            try
+            {
+                testUris[i] = URI.create(httpTestUrls[i]);
+                testUrls[i] = new URL(httpTestUrls[i]);
+            }
+            catch(MalformedURLException e)
+            {
+                throw new IllegalArgumentException(httpTestUrls[i], e);
+            }
+        }
+    }
+
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the preference rank of a known ad blocker package (0 is the
+     * most specific one), or -1 if packageName is not a known ad blocker.
+     */
+    public int getAppRank(String packageName)
+    {
+        final Integer r = appRanks.get(packageName);
+        return (r == null) ? -1 : r;
+    }
+
+    /**
+     * @return the known ad blocker package of the given rank.
+     */
+    public String getAppName(int rank)
+    {
+        return appNames[rank];
+    }
+
+    /**
+     * Multi-pattern matcher (Aho-Corasick automaton) for hosts file lines.
+     * Like String.contains(), matching is case sensitive; patterns are
+     * matched as UTF-8 bytes, the encoding of hosts files.
+     * Bytes are mapped to a compact alphabet made of the bytes used by
+     * the patterns, so the transition table stays small.
+     */
+    static final class HostsMatcher
+    {
+        /** byte -> alphabet class, 0 is "any other byte" */
+        private final int[] classes = new int[256];
+        private final int alphabet;
+        /** state * alphabet + class -> next state */
+        private final int[] next;
+        private final boolean[] accept;
+
+        HostsMatcher(String[] patterns)
+        {
+            final byte[][] bytes = new byte[patterns.length][];
+            for(int i = 0; i < patterns.length; ++i)
+                bytes[i] = patterns[i].getBytes(UTF_8);
+
+            // alphabet
+            int n = 1;
+            for(final byte[] p : bytes)
+                for(final byte b : p)
+                    if(classes[b & 0xff] == 0)
+                        classes[b & 0xff] = n++;
+            alphabet = n;
+
+            // trie
+            final ArrayList<int[]> trie = new ArrayList<>();
+            final ArrayList<Boolean> term = new ArrayList<>();
+            trie.add(newRow());
+            term.add(false);
+            for(final byte[] p : bytes)
+            {
+                if(p.length == 0)
+                    continue;
+                int s = 0;
+                for(final byte b : p)
+                {
+                    final int c = classes[b & 0xff];
+                    if(trie.get(s)[c] < 0)
+                    {
+                        trie.get(s)[c] = trie.size();
+                        trie.add(newRow());
+                        term.add(false);
+                    }
+                    s = trie.get(s)[c];
+                }
+                term.set(s, true);
+            }
+
+            // failure links, turned into a complete transition table (breadth first)
+            final int states = trie.size();
+            next = new int[states * alphabet];
+            accept = new boolean[states];
+            final int[] fail = new int[states];
+            final int[] queue = new int[states];
+            int head = 0, tail = 0;
+            for(int c = 0; c < alphabet; ++c)
+            {
+                final int t = trie.get(0)[c];
+                if(t < 0)
+                    next[c] = 0;
+                else
+                {
+                    next[c] = t;
+                    fail[t] = 0;
+                    queue[tail++] = t;
+                }
+            }
+            for(int s = 0; s < states; ++s)
+                accept[s] = term.get(s);
+            while(head < tail)
+            {
+                final int s = queue[head++];
+                accept[s] |= accept[fail[s]];
+                for(int c = 0; c < alphabet; ++c)
+                {
+                    final int t = trie.get(s)[c];
+                    if(t < 0)
+                        next[s * alphabet + c] = next[fail[s] * alphabet + c];
+                    else
+                    {
+                        next[s * alphabet + c] = t;
+                        fail[t] = next[fail[s] * alphabet + c];
+                        queue[tail++] = t;
+                    }
+                }
+            }
+        }
+
+        private int[] newRow()
+        {
+            final int[] r = new int[alphabet];
+            for(int i = 0; i < r.length; ++i)
+                r[i] = -1;
+            return r;
+        }
+
+        /**
+         * @return true if buf[from..to[ contains one of the patterns.
+         */
+        boolean matches(byte[] buf, int from, int to)
+        {
+            int s = 0;
+            for(int i = from; i < to; ++i)
+            {
+                s = next[s * alphabet + classes[buf[i] & 0xff]];
+                if(accept[s])
+                    return true;
+            }
+            return false;
+        }
+    }
+
+}
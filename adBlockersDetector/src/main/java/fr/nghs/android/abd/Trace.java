@@ -0,0 +1,177 @@
+/*
+ * Trace.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact record of what a detection read from the device and how long it took:
+ * package query answer, hosts file identity and digest, DNS answers, proxies,
+ * HTTP outcomes and probe timings. Durations are in microseconds.
+ * <p>
+ * Traces are written as text, one record per line, and can be replayed
+ * with {@link ReplayEnvironment}.
+ * @see TraceRecorder
+ */
+public final class Trace
+{
+
+    private static final String HEADER = "abd-trace 1";
+
+    static final String SIGNATURES = "sig";
+    static final String PACKAGE = "pkg";
+    static final String HOSTS = "hosts";
+    static final String DNS = "dns";
+    static final String PROXY = "proxy";
+    static final String HTTP = "http";
+    static final String PROBE = "probe";
+    static final String VERDICT = "verdict";
+
+    private final ArrayList<String[]> records = new ArrayList<>();
+
+    synchronized void add(String... fields)
+    {
+        records.add(fields);
+    }
+
+    /**
+     * @return the records of the given kind, fields after the kind.
+     */
+    synchronized List<String[]> get(String kind)
+    {
+        final ArrayList<String[]> r = new ArrayList<>();
+        for(final String[] f : records)
+        {
+            if(f[0].equals(kind))
+            {
+                final String[] v = new String[f.length - 1];
+                System.arraycopy(f, 1, v, 0, v.length);
+                r.add(v);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @return duration of the recorded detection, in milliseconds, or -1 if unknown.
+     */
+    public long getDurationMs()
+    {
+        final List<String[]> v = get(VERDICT);
+        return v.isEmpty() ? -1 : Long.parseLong(v.get(0)[4]) / 1000;
+    }
+
+    public synchronized void write(Writer w) throws IOException
+    {
+        w.write(HEADER);
+        w.write('\n');
+        for(final String[] f : records)
+        {
+            for(int i = 0; i < f.length; ++i)
+            {
+                if(i > 0)
+                    w.write(' ');
+                w.write(encode(f[i]));
+            }
+            w.write('\n');
+        }
+        w.flush();
+    }
+
+    public static Trace read(Reader r) throws IOException
+    {
+        final BufferedReader in = new BufferedReader(r);
+        if(!HEADER.equals(in.readLine()))
+            throw new IOException("Not a trace");
+        final Trace t = new Trace();
+        String ln;
+        while( (ln = in.readLine()) != null )
+        {
+            if(ln.length() == 0)
+                continue;
+            final String[] f = ln.split(" ");
+            for(int i = 0; i < f.length; ++i)
+                f[i] = decode(f[i]);
+            t.add(f);
+        }
+        return t;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringWriter w = new StringWriter();
+        try
+        {
+            write(w);
+        }
+        catch(IOException e)
+        {
+        }
+        return w.toString();
+    }
+
+    private static String encode(String s)
+    {
+        // URLEncoder leaves '-' as is and always encodes '~'
+        if(s == null)
+            return "-";
+        if(s.length() == 0)
+            return "~";
+        if(s.equals("-"))
+            return "%2D";
+        try
+        {
+            return URLEncoder.encode(s, "UTF-8");
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String s)
+    {
+        if(s.equals("-"))
+            return null;
+        if(s.equals("~"))
+            return "";
+        try
+        {
+            return URLDecoder.decode(s, "UTF-8");
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
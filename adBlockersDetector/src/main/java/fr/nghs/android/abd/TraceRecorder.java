@@ -0,0 +1,112 @@
+/*
+ * TraceRecorder.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps traces of the last detections of the detectors it is given to.
+ * Recording reads the whole hosts file once to digest it and times every
+ * device access, so it should only be enabled on demand. Digesting is done
+ * in a background thread once the verdict is known, so traces are kept a
+ * little after the detection returns.
+ * @see AdBlockersDetector#setTraceRecorder(TraceRecorder)
+ */
+public final class TraceRecorder
+{
+
+    /** Digests hosts files of ended detections */
+    private static final ExecutorService digester;
+    static
+    {
+        final ThreadPoolExecutor e = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        final Thread t = new Thread(r, "abd-trace");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+        e.allowCoreThreadTimeOut(true);
+        digester = e;
+    }
+
+    private final int capacity;
+    private final ArrayList<Trace> traces = new ArrayList<>();
+
+    /**
+     * @param capacity number of traces kept, older ones are dropped
+     */
+    public TraceRecorder(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Record the hosts files of an ended detection, then keep its trace.
+     */
+    void complete(final RecordingEnvironment env, final Trace t)
+    {
+        digester.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                env.recordHostsFiles();
+                add(t);
+            }
+        });
+    }
+
+    synchronized void add(Trace t)
+    {
+        if(capacity <= 0)
+            return;
+        if(traces.size() == capacity)
+            traces.remove(0);
+        traces.add(t);
+    }
+
+    /**
+     * @return recorded traces, oldest first.
+     */
+    public synchronized List<Trace> getTraces()
+    {
+        return new ArrayList<>(traces);
+    }
+
+    public synchronized void clear()
+    {
+        traces.clear();
+    }
+
+}
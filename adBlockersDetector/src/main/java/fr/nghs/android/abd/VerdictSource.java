@@ -0,0 +1,42 @@
+/*
+ * VerdictSource.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+/**
+ * A place where shared verdicts are read and published:
+ * the provider of a sibling application, or an in-process store.
+ */
+public interface VerdictSource
+{
+    /**
+     * @param protocolVersion protocol version of the reader
+     * @return the latest verdict, or null if none is available or versions are
+     * incompatible: the reader is older than the verdict, or than the oldest
+     * version the source can serve.
+     */
+    SharedVerdict read(int protocolVersion);
+
+    /**
+     * Publish a verdict, replacing an older one.
+     */
+    void publish(SharedVerdict v);
+}
@@ -0,0 +1,141 @@
+/*
+ * VerdictStore.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Verdict storage of this application, behind {@link SharedVerdictProvider}.
+ * The default store is persisted, so that a sibling query starting this
+ * application process is answered. An in-memory store can also be used
+ * directly as a {@link VerdictSource}, in tests for instance, to stand in
+ * for a sibling application provider.
+ */
+public final class VerdictStore implements VerdictSource
+{
+
+    private static final String PREFS = "fr.nghs.android.abd.verdict";
+
+    private static VerdictStore defaultStore = null;
+
+    /** Null for an in-memory store */
+    private final SharedPreferences prefs;
+    private SharedVerdict latest;
+
+    /**
+     * In-memory store.
+     */
+    public VerdictStore()
+    {
+        prefs = null;
+        latest = null;
+    }
+
+    private VerdictStore(SharedPreferences p)
+    {
+        prefs = p;
+        latest = load(p);
+    }
+
+    /**
+     * @return the store of this application, read from its preferences on first use.
+     */
+    public static synchronized VerdictStore getDefault(Context c)
+    {
+        if(defaultStore == null)
+        {
+            final Context app = c.getApplicationContext();
+            defaultStore = new VerdictStore((app != null ? app : c).getSharedPreferences(PREFS, Context.MODE_PRIVATE));
+        }
+        return defaultStore;
+    }
+
+    /**
+     * @return null for readers older than MIN_PROTOCOL_VERSION, or older
+     * than the protocol version of the stored verdict.
+     */
+    @Override
+    public synchronized SharedVerdict read(int protocolVersion)
+    {
+        if(latest == null || protocolVersion < SharedVerdict.MIN_PROTOCOL_VERSION ||
+                protocolVersion < latest.protocolVersion)
+            return null;
+        return latest;
+    }
+
+    /**
+     * Verdicts older than the current one are ignored, as well as
+     * verdicts of a protocol version this library cannot read.
+     */
+    @Override
+    public synchronized void publish(SharedVerdict v)
+    {
+        if(v.protocolVersion < SharedVerdict.MIN_PROTOCOL_VERSION || v.protocolVersion > SharedVerdict.PROTOCOL_VERSION)
+            return;
+        if(latest == null || v.timestamp >= latest.timestamp)
+        {
+            latest = v;
+            save();
+        }
+    }
+
+    public synchronized void clear()
+    {
+        latest = null;
+        if(prefs != null)
+            prefs.edit().clear().apply();
+    }
+
+    private static SharedVerdict load(SharedPreferences p)
+    {
+        final int protocol = p.getInt("protocol", 0);
+        if(!p.contains("timestamp") || protocol < SharedVerdict.MIN_PROTOCOL_VERSION ||
+                protocol > SharedVerdict.PROTOCOL_VERSION)
+            return null;
+        return new SharedVerdict(protocol,
+                p.getBoolean("found", false),
+                p.getString("method", null),
+                p.getString("details1", null),
+                p.getString("details2", null),
+                p.getBoolean("degraded", false),
+                p.getLong("timestamp", 0),
+                p.getString("fingerprint", null));
+    }
+
+    private void save()
+    {
+        if(prefs == null)
+            return;
+        prefs.edit()
+            .putInt("protocol", latest.protocolVersion)
+            .putBoolean("found", latest.found)
+            .putString("method", latest.method)
+            .putString("details1", latest.details1)
+            .putString("details2", latest.details2)
+            .putBoolean("degraded", latest.degraded)
+            .putLong("timestamp", latest.timestamp)
+            .putString("fingerprint", latest.fingerprint)
+            .apply();
+    }
+
+}
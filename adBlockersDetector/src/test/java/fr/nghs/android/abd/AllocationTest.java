@@ -0,0 +1,142 @@
+/*
+ * AllocationTest.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package fr.nghs.android.abd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Steady-state local detections must not allocate, see
+ * {@link AdBlockersDetector#detectAdBlockers(AdBlockersDetector.Info)}.
+ */
+public class AllocationTest
+{
+
+    private static final int WARMUP = 20000;
+    private static final int DETECTIONS = 10000;
+
+    private com.sun.management.ThreadMXBean mx;
+    private AdBlockersDetector abd;
+    private TestEnvironment env;
+    private File hosts;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        final java.lang.management.ThreadMXBean b = ManagementFactory.getThreadMXBean();
+        assumeTrue(b instanceof com.sun.management.ThreadMXBean);
+        mx = (com.sun.management.ThreadMXBean)b;
+        assumeTrue(mx.isThreadAllocatedMemorySupported());
+        mx.setThreadAllocatedMemoryEnabled(true);
+
+        hosts = File.createTempFile("hosts", null);
+        final Writer w = new FileWriter(hosts);
+        try
+        {
+            w.write("# comment\n");
+            for(int i = 0; i < 1000; ++i)
+                w.write("127.0.0.1 host" + i + ".example.com\n");
+        }
+        finally
+        {
+            w.close();
+        }
+
+        env = new TestEnvironment();
+        abd = new AdBlockersDetector(null);
+        abd.setEnvironment(env);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if(hosts != null)
+            hosts.delete();
+    }
+
+    @Test
+    public void noHostsFileDoesNotAllocate()
+    {
+        final AdBlockersDetector.Info info = new AdBlockersDetector.Info();
+        assertEquals(0, bytesPerDetection(info));
+    }
+
+    @Test
+    public void unchangedHostsFileOnlyCostsFileStatus()
+    {
+        env.hostsFiles = new File[] { new File(hosts.getParentFile(), "missing-hosts"), hosts };
+        final AdBlockersDetector.Info info = new AdBlockersDetector.Info();
+        final long detection = bytesPerDetection(info);
+
+        // what the platform allocates for the file status checks done by each detection
+        final File[] files = env.hostsFiles;
+        final long start = allocated();
+        for(int i = 0; i < DETECTIONS; ++i)
+        {
+            files[0].canRead();
+            files[1].canRead();
+            files[1].length();
+            files[1].lastModified();
+        }
+        final long status = (allocated() - start) / DETECTIONS;
+
+        assertTrue(detection + " bytes per detection, " + status + " for the file status",
+                detection <= status + 8);
+    }
+
+    @Test
+    public void knownPackageDoesNotAllocate()
+    {
+        env.installedPackage = "org.adaway";
+        final AdBlockersDetector.Info info = new AdBlockersDetector.Info();
+        assertEquals(0, bytesPerDetection(info));
+        assertEquals(AdBlockersDetector.Method.BY_APP_NAME, info.method);
+    }
+
+    private long bytesPerDetection(AdBlockersDetector.Info info)
+    {
+        for(int i = 0; i < WARMUP; ++i)
+            abd.detectAdBlockers(info);
+        final long start = allocated();
+        for(int i = 0; i < DETECTIONS; ++i)
+            abd.detectAdBlockers(info);
+        return (allocated() - start) / DETECTIONS;
+    }
+
+    private long allocated()
+    {
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
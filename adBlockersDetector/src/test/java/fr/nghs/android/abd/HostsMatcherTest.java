@@ -0,0 +1,127 @@
+/*
+ * HostsMatcherTest.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package fr.nghs.android.abd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The automaton must give the same answer as String.contains() on each pattern.
+ */
+public class HostsMatcherTest
+{
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static boolean matches(Signatures.HostsMatcher m, String line)
+    {
+        final byte[] b = line.getBytes(UTF_8);
+        return m.matches(b, 0, b.length);
+    }
+
+    private static boolean contains(String[] patterns, String line)
+    {
+        for(final String p : patterns)
+            if(line.contains(p))
+                return true;
+        return false;
+    }
+
+    @Test
+    public void overlappingPatterns()
+    {
+        // failure links: "abab" must be found after a partial "abac", "bc" inside "abc"...
+        final String[] patterns = { "abac", "abab", "bc", "cab", "babc" };
+        final Signatures.HostsMatcher m = new Signatures.HostsMatcher(patterns);
+        assertTrue(matches(m, "xxabababxx"));
+        assertTrue(matches(m, "ababc"));
+        assertTrue(matches(m, "aaabc"));
+        assertTrue(matches(m, "ca cab"));
+        assertFalse(matches(m, "abaa baba acb"));
+    }
+
+    @Test
+    public void caseSensitive()
+    {
+        final Signatures.HostsMatcher m = new Signatures.HostsMatcher(new String[] { "admob", "Amazon-AdSystem" });
+        assertTrue(matches(m, "127.0.0.1 a.admob.com"));
+        assertFalse(matches(m, "127.0.0.1 a.AdMob.com"));
+        assertTrue(matches(m, "127.0.0.1 Amazon-AdSystem.com"));
+        assertFalse(matches(m, "127.0.0.1 amazon-adsystem.com"));
+    }
+
+    @Test
+    public void nonAscii()
+    {
+        final Signatures.HostsMatcher m = new Signatures.HostsMatcher(new String[] { "p\u00fcbli", "\u5e7f\u544a" });
+        assertTrue(matches(m, "0.0.0.0 p\u00fcbli.example"));
+        assertFalse(matches(m, "0.0.0.0 publi.example"));
+        assertTrue(matches(m, "0.0.0.0 x\u5e7f\u544ay"));
+        // shares its first UTF-8 byte with a pattern
+        assertFalse(matches(m, "0.0.0.0 p\u00fc"));
+    }
+
+    @Test
+    public void emptyPatternsAndLines()
+    {
+        final Signatures.HostsMatcher none = new Signatures.HostsMatcher(new String[0]);
+        assertFalse(matches(none, "anything"));
+        final Signatures.HostsMatcher m = new Signatures.HostsMatcher(new String[] { "", "ad" });
+        assertFalse(matches(m, ""));
+        assertTrue(matches(m, "bad"));
+    }
+
+    @Test
+    public void sameAsContains()
+    {
+        final Random r = new Random(42);
+        final String alphabet = "abcAB.-\u00fc";
+        for(int round = 0; round < 200; ++round)
+        {
+            final String[] patterns = new String[1 + r.nextInt(6)];
+            for(int i = 0; i < patterns.length; ++i)
+                patterns[i] = random(r, alphabet, 1 + r.nextInt(4));
+            final Signatures.HostsMatcher m = new Signatures.HostsMatcher(patterns);
+            for(int i = 0; i < 50; ++i)
+            {
+                final String line = random(r, alphabet, r.nextInt(20));
+                assertEquals(line, contains(patterns, line), matches(m, line));
+            }
+        }
+    }
+
+    private static String random(Random r, String alphabet, int len)
+    {
+        final StringBuilder sb = new StringBuilder(len);
+        for(int i = 0; i < len; ++i)
+            sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * ProbeEngineTest.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+
+package fr.nghs.android.abd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Parallel groups of probes.
+ */
+public class ProbeEngineTest
+{
+
+    /** Negative IPC probe, run in parallel with the package name one */
+    private static final class IpcProbe implements Probe
+    {
+        final AtomicInteger runs;
+        private final String id;
+
+        IpcProbe(String id, AtomicInteger runs)
+        {
+            this.id = id;
+            this.runs = runs;
+        }
+
+        @Override
+        public String getId()
+        {
+            return id;
+        }
+
+        @Override
+        public Cost getCost()
+        {
+            return Cost.IPC;
+        }
+
+        @Override
+        public boolean isParallelSafe()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean run(ProbeContext ctx, AdBlockersDetector.Info info)
+        {
+            runs.incrementAndGet();
+            return false;
+        }
+    }
+
+    private static AdBlockersDetector detector(TestEnvironment env, int ipcProbes, AtomicInteger runs)
+    {
+        final AdBlockersDetector d = new AdBlockersDetector(null);
+        d.setEnvironment(env);
+        for(int i = 0; i < ipcProbes; ++i)
+            d.addProbe(new IpcProbe("IPC" + i, runs));
+        return d;
+    }
+
+    @Test
+    public void parallelVerdictHasEmptyDetails()
+    {
+        final TestEnvironment env = new TestEnvironment();
+        env.installedPackage = "org.adaway";
+        final AdBlockersDetector.Info info = new AdBlockersDetector.Info();
+        assertTrue(detector(env, 1, new AtomicInteger()).detectAdBlockers(info));
+        assertEquals(AdBlockersDetector.Method.BY_APP_NAME, info.method);
+        assertEquals("org.adaway", info.details1);
+        assertEquals("", info.details2);
+    }
+
+    @Test
+    public void groupLargerThanPoolRunsAllProbes()
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        assertFalse(detector(new TestEnvironment(), 100, runs).detectAdBlockers());
+        assertEquals(100, runs.get());
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * SharedVerdictsTest.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package fr.nghs.android.abd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Shared verdicts, with in-process stores standing in for the providers
+ * of this application and of a sibling.
+ */
+public class SharedVerdictsTest
+{
+
+    /** Counts full detections */
+    private static final class CountingProbe implements Probe
+    {
+        int runs = 0;
+
+        @Override
+        public String getId()
+        {
+            return "COUNTING";
+        }
+
+        @Override
+        public Cost getCost()
+        {
+            return Cost.MEMORY;
+        }
+
+        @Override
+        public boolean isParallelSafe()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean run(ProbeContext ctx, AdBlockersDetector.Info info)
+        {
+            ++runs;
+            return false;
+        }
+    }
+
+    private TestEnvironment env;
+    private VerdictStore own;
+    private VerdictStore sibling;
+    private CountingProbe probe;
+    private AdBlockersDetector abd;
+
+    @Before
+    public void setUp()
+    {
+        env = new TestEnvironment();
+        own = new VerdictStore();
+        sibling = new VerdictStore();
+        probe = new CountingProbe();
+        abd = detector(own, sibling, probe);
+    }
+
+    private AdBlockersDetector detector(VerdictStore store, VerdictStore siblingStore, Probe p)
+    {
+        final AdBlockersDetector d = new AdBlockersDetector(null);
+        d.setEnvironment(env);
+        d.addProbe(p);
+        d.setSharedVerdicts(new SharedVerdicts(store,
+                (siblingStore == null) ? Collections.<VerdictSource>emptyList() : Arrays.asList(siblingStore),
+                SharedVerdicts.DEFAULT_MAX_AGE_MS));
+        return d;
+    }
+
+    private String fingerprint()
+    {
+        return abd.fingerprint(SignatureRegistry.current());
+    }
+
+    @Test
+    public void freshVerdictIsReused()
+    {
+        assertFalse(abd.detectAdBlockers());
+        assertFalse(abd.detectAdBlockers());
+        assertEquals(1, probe.runs);
+    }
+
+    @Test
+    public void installedAdBlockerInvalidatesVerdict()
+    {
+        assertFalse(abd.detectAdBlockers());
+        env.installedPackage = "org.adaway";
+        final AdBlockersDetector.Info info = new AdBlockersDetector.Info();
+        assertTrue(abd.detectAdBlockers(info));
+        assertEquals(AdBlockersDetector.Method.BY_APP_NAME, info.method);
+        assertEquals("org.adaway", info.details1);
+    }
+
+    @Test
+    public void verdictIsPushedToSiblings() throws InterruptedException
+    {
+        env.installedPackage = "org.adaway";
+        assertTrue(abd.detectAdBlockers());
+
+        SharedVerdict v = null;
+        for(int i = 0; i < 500 && v == null; ++i)
+        {
+            v = sibling.read(SharedVerdict.PROTOCOL_VERSION);
+            if(v == null)
+                Thread.sleep(10);
+        }
+        assertNotNull(v);
+
+        // the sibling uses it without probing
+        final CountingProbe siblingProbe = new CountingProbe();
+        final AdBlockersDetector s = detector(sibling, null, siblingProbe);
+        final AdBlockersDetector.Info info = new AdBlockersDetector.Info();
+        assertTrue(s.detectAdBlockers(info));
+        assertEquals(AdBlockersDetector.Method.BY_APP_NAME, info.method);
+        assertEquals(0, siblingProbe.runs);
+    }
+
+    @Test
+    public void networkingInvalidatesVerdict()
+    {
+        env.resolvedAddress = InetAddress.getLoopbackAddress();
+        // host resolution is not scheduled without networking
+        assertFalse(abd.detectAdBlockers());
+
+        abd.setNetworkingAllowed(true);
+        final AdBlockersDetector.Info info = new AdBlockersDetector.Info();
+        assertTrue(abd.detectAdBlockers(info));
+        assertEquals(AdBlockersDetector.Method.BY_HOST_RESOLUTION, info.method);
+        assertEquals(2, probe.runs);
+    }
+
+    @Test
+    public void listContentsAreFingerprinted()
+    {
+        final Signatures a = new Signatures(0, new String[] { "a" }, new String[0], new String[0], new String[0]);
+        final Signatures b = new Signatures(0, new String[] { "b" }, new String[0], new String[0], new String[0]);
+        assertFalse(abd.fingerprint(a).equals(abd.fingerprint(b)));
+    }
+
+    @Test
+    public void staleVerdictIsIgnored()
+    {
+        own.publish(new SharedVerdict(SharedVerdict.PROTOCOL_VERSION, false, "NONE", "", "", false,
+                System.currentTimeMillis() - SharedVerdicts.DEFAULT_MAX_AGE_MS - 1000, fingerprint()));
+        abd.detectAdBlockers();
+        assertEquals(1, probe.runs);
+    }
+
+    @Test
+    public void unknownMethodIsIgnored()
+    {
+        own.publish(new SharedVerdict(SharedVerdict.PROTOCOL_VERSION, true, "SOME_OTHER_PROBE", "x", "", false,
+                System.currentTimeMillis(), fingerprint()));
+        assertFalse(abd.detectAdBlockers());
+        assertEquals(1, probe.runs);
+    }
+
+    @Test
+    public void customMethodIsKnown()
+    {
+        own.publish(new SharedVerdict(SharedVerdict.PROTOCOL_VERSION, true, "COUNTING", "x", "", false,
+                System.currentTimeMillis(), fingerprint()));
+        final AdBlockersDetector.Info info = new AdBlockersDetector.Info();
+        assertTrue(abd.detectAdBlockers(info));
+        assertEquals(AdBlockersDetector.Method.CUSTOM, info.method);
+        assertEquals("COUNTING", info.methodId);
+        assertEquals(0, probe.runs);
+    }
+
+    @Test
+    public void protocolVersionsAreNegotiated()
+    {
+        final SharedVerdict v = new SharedVerdict(SharedVerdict.PROTOCOL_VERSION, false, "NONE", "", "", false,
+                System.currentTimeMillis(), fingerprint());
+        own.publish(v);
+        assertNotNull(own.read(SharedVerdict.PROTOCOL_VERSION));
+        // readers older than the verdict are not served
+        assertNull(own.read(SharedVerdict.PROTOCOL_VERSION - 1));
+
+        // verdicts newer than this library are not stored
+        final VerdictStore s = new VerdictStore();
+        s.publish(new SharedVerdict(SharedVerdict.PROTOCOL_VERSION + 1, false, "NONE", "", "", false,
+                System.currentTimeMillis(), fingerprint()));
+        assertNull(s.read(SharedVerdict.PROTOCOL_VERSION + 1));
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * TestEnvironment.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package fr.nghs.android.abd;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.net.UnknownHostException;
+
+/**
+ * Local-only device: a settable installed package, hosts files and
+ * address all host names resolve to, no connection.
+ */
+class TestEnvironment implements Environment
+{
+
+    String installedPackage = null;
+    File[] hostsFiles = new File[0];
+    /** null if name resolution fails */
+    InetAddress resolvedAddress = null;
+
+    @Override
+    public String findInstalledPackage(Signatures sig)
+    {
+        return (installedPackage != null && sig.getAppRank(installedPackage) >= 0) ? installedPackage : null;
+    }
+
+    @Override
+    public File[] getHostsFiles()
+    {
+        return hostsFiles;
+    }
+
+    @Override
+    public InetAddress resolve(String hostName) throws IOException
+    {
+        if(resolvedAddress == null)
+            throw new UnknownHostException(hostName);
+        return resolvedAddress;
+    }
+
+    @Override
+    public ProxySelector getProxySelector()
+    {
+        return ProxySelector.getDefault();
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException
+    {
+        throw new IOException("No network");
+    }
+
+}
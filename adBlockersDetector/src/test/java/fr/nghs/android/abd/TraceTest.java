@@ -0,0 +1,117 @@
+/*
+ * TraceTest.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+
+package fr.nghs.android.abd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Record, write, read and replay a detection.
+ */
+public class TraceTest
+{
+
+    private File hosts;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        hosts = File.createTempFile("hosts", null);
+        final Writer w = new FileWriter(hosts);
+        try
+        {
+            w.write("# comment\n");
+            for(int i = 0; i < 100; ++i)
+                w.write("127.0.0.1 host" + i + ".example.com\n");
+            w.write("127.0.0.1 mmv.admob.com\n");
+        }
+        finally
+        {
+            w.close();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        hosts.delete();
+    }
+
+    private static Trace await(TraceRecorder rec) throws InterruptedException
+    {
+        for(int i = 0; i < 500; ++i)
+        {
+            final List<Trace> t = rec.getTraces();
+            if(!t.isEmpty())
+                return t.get(0);
+            Thread.sleep(10);
+        }
+        throw new AssertionError("No trace recorded");
+    }
+
+    @Test
+    public void replayRecordedDetection() throws IOException, InterruptedException
+    {
+        final TestEnvironment env = new TestEnvironment();
+        env.hostsFiles = new File[] { hosts };
+        final AdBlockersDetector recorded = new AdBlockersDetector(null);
+        recorded.setEnvironment(env);
+        final TraceRecorder rec = new TraceRecorder(1);
+        recorded.setTraceRecorder(rec);
+        final AdBlockersDetector.Info expected = new AdBlockersDetector.Info();
+        assertTrue(recorded.detectAdBlockers(expected));
+        assertEquals(AdBlockersDetector.Method.BY_HOSTS_FILE, expected.method);
+
+        final StringWriter w = new StringWriter();
+        await(rec).write(w);
+        final Trace t = Trace.read(new StringReader(w.toString()));
+        assertEquals(1, t.get(Trace.HOSTS).size());
+
+        final ReplayEnvironment replay = new ReplayEnvironment(t, 0, hosts.getParentFile());
+        final AdBlockersDetector replayed = new AdBlockersDetector(null);
+        replayed.setEnvironment(replay);
+        final AdBlockersDetector.Info info = new AdBlockersDetector.Info();
+        final long start = System.nanoTime();
+        assertTrue(replayed.detectAdBlockers(info));
+        assertEquals(expected.method, info.method);
+        assertEquals(expected.details2, info.details2);
+        assertEquals(hosts.length(), replay.getHostsFiles()[0].length());
+        // nothing sleeps with a time scale of 0
+        assertTrue((System.nanoTime() - start) / 1000000 < 1000);
+        replay.getHostsFiles()[0].delete();
+    }
+
+}
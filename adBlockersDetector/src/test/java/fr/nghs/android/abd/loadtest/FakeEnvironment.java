@@ -0,0 +1,125 @@
+/*
+ * FakeEnvironment.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import fr.nghs.android.abd.Environment;
+import fr.nghs.android.abd.Signatures;
+
+/**
+ * Simulated device: synthetic package list and hosts file, DNS answered by
+ * a {@link StubDnsServer}, HTTP going through a {@link StubHttpProxy}.
+ */
+public class FakeEnvironment implements Environment
+{
+
+    private static final int DNS_TIMEOUT_MS = 5000;
+
+    private final String[] packages;
+    private final File[] hostsFiles;
+    private final InetSocketAddress dnsServer;
+    private final Proxy proxy;
+    private final Meter sockets;
+
+    /**
+     * @param installedPackages synthetic package list
+     * @param hostsFile hosts file to scan, may be null
+     * @param dnsServer DNS server to query, if null no name can be resolved
+     * @param httpProxy HTTP proxy to use, if null connections are direct
+     * @param sockets counts DNS sockets opened by this environment, may be shared
+     */
+    public FakeEnvironment(Collection<String> installedPackages, File hostsFile,
+            InetSocketAddress dnsServer, InetSocketAddress httpProxy, Meter sockets)
+    {
+        this.packages = installedPackages.toArray(new String[installedPackages.size()]);
+        this.hostsFiles = (hostsFile == null) ? new File[0] : new File[] { hostsFile };
+        this.dnsServer = dnsServer;
+        this.proxy = (httpProxy == null) ? Proxy.NO_PROXY : new Proxy(Proxy.Type.HTTP, httpProxy);
+        this.sockets = sockets;
+    }
+
+    @Override
+    public String findInstalledPackage(Signatures sig)
+    {
+        int best = Integer.MAX_VALUE;
+        for(final String p : packages)
+        {
+            final int r = sig.getAppRank(p);
+            if(r >= 0 && r < best)
+                best = r;
+        }
+        return (best == Integer.MAX_VALUE) ? null : sig.getAppName(best);
+    }
+
+    @Override
+    public File[] getHostsFiles()
+    {
+        return hostsFiles;
+    }
+
+    @Override
+    public InetAddress resolve(String hostName) throws IOException
+    {
+        if(dnsServer == null)
+            throw new UnknownHostException(hostName);
+        return StubDnsClient.resolve(dnsServer, hostName, DNS_TIMEOUT_MS, sockets);
+    }
+
+    @Override
+    public ProxySelector getProxySelector()
+    {
+        return new ProxySelector()
+        {
+            @Override
+            public List<Proxy> select(URI uri)
+            {
+                return Collections.singletonList(proxy);
+            }
+
+            @Override
+            public void connectFailed(URI uri, SocketAddress sa, IOException ioe)
+            {
+            }
+        };
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException
+    {
+        return (HttpURLConnection)url.openConnection(proxy);
+    }
+
+}
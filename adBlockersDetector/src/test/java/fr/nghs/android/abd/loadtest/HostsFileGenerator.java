@@ -0,0 +1,72 @@
+/*
+ * HostsFileGenerator.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd.loadtest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Generate synthetic hosts files.
+ */
+public final class HostsFileGenerator
+{
+
+    /**
+     * Write a hosts file made of comments and harmless entries.
+     * @param dir directory where the file is created
+     * @param lines number of lines
+     * @param blockedEntry if not null, an entry added as the last line (eg. "127.0.0.1 a.admob.com")
+     * @return the created file, deleted on exit.
+     */
+    public static File generate(File dir, int lines, String blockedEntry) throws IOException
+    {
+        final File f = File.createTempFile("hosts", ".txt", dir);
+        f.deleteOnExit();
+        final BufferedWriter out = new BufferedWriter(new FileWriter(f));
+        try
+        {
+            out.write("127.0.0.1 localhost\n");
+            for(int i = 1; i < lines; ++i)
+            {
+                if(i % 50 == 0)
+                    out.write("# generated block " + i + "\n");
+                else
+                    out.write("0.0.0.0 host" + i + ".tracker.example.net\n");
+            }
+            if(blockedEntry != null)
+            {
+                out.write(blockedEntry);
+                out.write('\n');
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return f;
+    }
+
+    private HostsFileGenerator() {}
+
+}
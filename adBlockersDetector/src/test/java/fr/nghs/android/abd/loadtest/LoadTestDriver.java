@@ -0,0 +1,267 @@
+/*
+ * LoadTestDriver.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.nghs.android.abd.AdBlockersDetector;
+import fr.nghs.android.abd.Environment;
+
+/**
+ * Run many synchronous detections in parallel against simulated devices
+ * and measure throughput, latency and resource usage.
+ * <p>
+ * Typical use, from a unit test:
+ * <pre>
+ * final Meter sockets = new Meter();
+ * final StubDnsServer dns = new StubDnsServer(new String[] { "a.admob.com" }, 20);
+ * final Environment env = new FakeEnvironment(packages,
+ *         HostsFileGenerator.generate(dir, 10000, null), dns.getAddress(), null, sockets);
+ * final LoadTestDriver d = new LoadTestDriver(Arrays.asList(env));
+ * d.setDetections(5000);
+ * d.setConcurrency(64);
+ * d.setNetworkingAllowed(true);
+ * d.watch("dns sockets", sockets);
+ * System.out.println(d.run());
+ * </pre>
+ */
+public final class LoadTestDriver
+{
+
+    private final List<? extends Environment> environments;
+    private int detections = 1000;
+    private int concurrency = 16;
+    private boolean networking = false;
+    private boolean localProxy = false;
+    private final LinkedHashMap<String, Meter> meters = new LinkedHashMap<>();
+
+    /**
+     * @param environments simulated devices, detections are spread over them in turn
+     */
+    public LoadTestDriver(List<? extends Environment> environments)
+    {
+        if(environments.isEmpty())
+            throw new IllegalArgumentException("No environment");
+        this.environments = environments;
+    }
+
+    /** Total number of detections to run. */
+    public LoadTestDriver setDetections(int n)
+    {
+        detections = n;
+        return this;
+    }
+
+    /** Number of detections running at the same time. */
+    public LoadTestDriver setConcurrency(int n)
+    {
+        concurrency = n;
+        return this;
+    }
+
+    public LoadTestDriver setNetworkingAllowed(boolean v)
+    {
+        networking = v;
+        return this;
+    }
+
+    public LoadTestDriver setLocalProxyDetectionEnabled(boolean v)
+    {
+        localProxy = v;
+        return this;
+    }
+
+    /**
+     * Report the peak and total values of m under the given name.
+     */
+    public LoadTestDriver watch(String name, Meter m)
+    {
+        meters.put(name, m);
+        return this;
+    }
+
+    /**
+     * Run the detections and wait for them to end.
+     */
+    public Report run() throws InterruptedException
+    {
+        for(final Meter m : meters.values())
+            m.reset();
+
+        final long[] latencies = new long[detections];
+        final AtomicInteger found = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(detections);
+        final ThreadSampler sampler = new ThreadSampler();
+        final ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+
+        // one detector per environment, shared by the detections: steady state
+        final AdBlockersDetector[] detectors = new AdBlockersDetector[environments.size()];
+        for(int i = 0; i < detectors.length; ++i)
+        {
+            final AdBlockersDetector d = new AdBlockersDetector(null);
+            d.setEnvironment(environments.get(i));
+            d.setNetworkingAllowed(networking);
+            d.setLocalProxyDetectionEnabled(localProxy);
+            detectors[i] = d;
+        }
+
+        sampler.start();
+        final long start = System.nanoTime();
+        for(int i = 0; i < detections; ++i)
+        {
+            final int index = i;
+            final AdBlockersDetector d = detectors[i % detectors.length];
+            pool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    final long t0 = System.nanoTime();
+                    try
+                    {
+                        if(d.detectAdBlockers(new AdBlockersDetector.Info()))
+                            found.incrementAndGet();
+                    }
+                    catch(RuntimeException e)
+                    {
+                        errors.incrementAndGet();
+                    }
+                    latencies[index] = System.nanoTime() - t0;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        final long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        sampler.interrupt();
+        sampler.join();
+
+        final Report r = new Report();
+        r.detections = detections;
+        r.concurrency = concurrency;
+        r.found = found.get();
+        r.errors = errors.get();
+        r.elapsedMs = elapsed / 1000000;
+        r.throughput = (elapsed == 0) ? 0 : detections * 1e9 / elapsed;
+        Arrays.sort(latencies);
+        r.p50Ms = percentile(latencies, 50);
+        r.p90Ms = percentile(latencies, 90);
+        r.p99Ms = percentile(latencies, 99);
+        r.maxMs = (detections == 0) ? 0 : latencies[detections - 1] / 1e6;
+        r.peakThreads = sampler.peak;
+        for(final Map.Entry<String, Meter> e : meters.entrySet())
+            r.meters.put(e.getKey(), new int[] { e.getValue().getPeak(), e.getValue().getTotal() });
+        return r;
+    }
+
+    private static double percentile(long[] sorted, int p)
+    {
+        if(sorted.length == 0)
+            return 0;
+        final int i = Math.min(sorted.length - 1, (int)Math.ceil(sorted.length * p / 100.0) - 1);
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    /**
+     * Sample the number of live threads of the process.
+     */
+    private static final class ThreadSampler extends Thread
+    {
+        volatile int peak = 0;
+
+        ThreadSampler()
+        {
+            super("abd-load-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for(;;)
+                {
+                    peak = Math.max(peak, Thread.activeCount());
+                    Thread.sleep(5);
+                }
+            }
+            catch(InterruptedException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * Results of a run.
+     */
+    public static final class Report
+    {
+        public int detections;
+        public int concurrency;
+        /** Detections that found an ad blocker */
+        public int found;
+        /** Detections that threw an exception */
+        public int errors;
+        public long elapsedMs;
+        /** Detections per second */
+        public double throughput;
+        public double p50Ms;
+        public double p90Ms;
+        public double p99Ms;
+        public double maxMs;
+        /** Maximum number of live threads seen */
+        public int peakThreads;
+        /** Watched meter name -> { peak, total } */
+        public final Map<String, int[]> meters = new LinkedHashMap<>();
+
+        @Override
+        public String toString()
+        {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d detections (%d found, %d errors), concurrency %d, %d ms\n",
+                    detections, found, errors, concurrency, elapsedMs));
+            sb.append(String.format("throughput %.1f/s, latency p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms\n",
+                    throughput, p50Ms, p90Ms, p99Ms, maxMs));
+            sb.append("peak threads ").append(peakThreads);
+            final List<String> m = new ArrayList<>();
+            for(final Map.Entry<String, int[]> e : meters.entrySet())
+                m.add(String.format("%s peak %d / total %d", e.getKey(), e.getValue()[0], e.getValue()[1]));
+            for(final String s : m)
+                sb.append(", ").append(s);
+            return sb.toString();
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * LoadTestDriverTest.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package fr.nghs.android.abd.loadtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.nghs.android.abd.Environment;
+
+public class LoadTestDriverTest
+{
+
+    @Test
+    public void localDetections() throws IOException, InterruptedException
+    {
+        final File blocked = HostsFileGenerator.generate(null, 2000, "127.0.0.1 a.admob.com");
+        final File clean = HostsFileGenerator.generate(null, 2000, null);
+        final List<Environment> envs = new ArrayList<>();
+        for(int i = 0; i < 8; ++i)
+            envs.add(new FakeEnvironment(Collections.<String>emptyList(),
+                    (i % 2 == 0) ? blocked : clean, null, null, new Meter()));
+
+        final LoadTestDriver.Report r = new LoadTestDriver(envs)
+                .setDetections(400)
+                .setConcurrency(16)
+                .run();
+        assertEquals(0, r.errors);
+        assertEquals(200, r.found);
+    }
+
+    @Test
+    public void networkedDetections() throws IOException, InterruptedException
+    {
+        final Meter sockets = new Meter();
+        final StubDnsServer dns = new StubDnsServer(new String[] { "mmv.admob.com" }, 5);
+        try
+        {
+            final List<Environment> envs = new ArrayList<>();
+            for(int i = 0; i < 4; ++i)
+                envs.add(new FakeEnvironment(Collections.<String>emptyList(), null,
+                        dns.getAddress(), null, sockets));
+
+            final LoadTestDriver.Report r = new LoadTestDriver(envs)
+                    .setDetections(200)
+                    .setConcurrency(16)
+                    .setNetworkingAllowed(true)
+                    .watch("dns sockets", sockets)
+                    .run();
+            assertEquals(r.toString(), 0, r.errors);
+            assertEquals(r.toString(), 200, r.found);
+            assertTrue(r.toString(), r.meters.get("dns sockets")[1] > 0);
+        }
+        finally
+        {
+            dns.close();
+        }
+    }
+
+    @Test
+    public void localProxyDetections() throws IOException, InterruptedException
+    {
+        assertEquals(100, proxyRun(0).found);
+        assertEquals(0, proxyRun(1000).found);
+    }
+
+    /**
+     * @param bodySize size of the answers of the proxy, lower than 4 for an ad filtering one
+     */
+    private static LoadTestDriver.Report proxyRun(int bodySize) throws IOException, InterruptedException
+    {
+        final StubHttpProxy proxy = new StubHttpProxy(bodySize, 5);
+        try
+        {
+            final List<Environment> envs = new ArrayList<>();
+            for(int i = 0; i < 4; ++i)
+                envs.add(new FakeEnvironment(Collections.<String>emptyList(), null,
+                        null, proxy.getAddress(), new Meter()));
+
+            final LoadTestDriver.Report r = new LoadTestDriver(envs)
+                    .setDetections(100)
+                    .setConcurrency(8)
+                    .setNetworkingAllowed(true)
+                    .setLocalProxyDetectionEnabled(true)
+                    .watch("proxy connections", proxy.getConnections())
+                    .run();
+            assertEquals(r.toString(), 0, r.errors);
+            assertTrue(r.toString(), r.meters.get("proxy connections")[1] > 0);
+            return r;
+        }
+        finally
+        {
+            proxy.close();
+        }
+    }
+
+}
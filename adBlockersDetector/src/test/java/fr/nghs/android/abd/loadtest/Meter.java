@@ -0,0 +1,78 @@
+/*
+ * Meter.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd.loadtest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe counter of a resource in use (sockets, connections...).
+ */
+public final class Meter
+{
+
+    private final AtomicInteger current = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicInteger total = new AtomicInteger();
+
+    /** A resource is acquired. */
+    public void enter()
+    {
+        final int c = current.incrementAndGet();
+        total.incrementAndGet();
+        for(;;)
+        {
+            final int p = peak.get();
+            if(c <= p || peak.compareAndSet(p, c))
+                break;
+        }
+    }
+
+    /** A resource is released. */
+    public void exit()
+    {
+        current.decrementAndGet();
+    }
+
+    public int getCurrent()
+    {
+        return current.get();
+    }
+
+    /** @return the maximum number of resources in use at the same time. */
+    public int getPeak()
+    {
+        return peak.get();
+    }
+
+    /** @return the number of resources acquired so far. */
+    public int getTotal()
+    {
+        return total.get();
+    }
+
+    public void reset()
+    {
+        peak.set(current.get());
+        total.set(0);
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * StubDnsClient.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd.loadtest;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Minimal DNS client, sending A queries to a given server.
+ */
+final class StubDnsClient
+{
+
+    private static final Random random = new Random();
+
+    static InetAddress resolve(InetSocketAddress server, String hostName, int timeoutMs, Meter sockets) throws IOException
+    {
+        final byte[] q = query(hostName);
+        final DatagramSocket s = new DatagramSocket();
+        sockets.enter();
+        try
+        {
+            s.setSoTimeout(timeoutMs);
+            s.send(new DatagramPacket(q, q.length, server));
+            final DatagramPacket p = new DatagramPacket(new byte[512], 512);
+            do
+            {
+                s.receive(p);
+            }
+            while(p.getLength() < 12 || p.getData()[0] != q[0] || p.getData()[1] != q[1]);
+            return parse(hostName, p.getData(), p.getLength());
+        }
+        finally
+        {
+            s.close();
+            sockets.exit();
+        }
+    }
+
+    private static byte[] query(String hostName)
+    {
+        final byte[] name = hostName.getBytes();
+        final byte[] q = new byte[12 + name.length + 2 + 4];
+        final int id;
+        synchronized(random)
+        {
+            id = random.nextInt(0x10000);
+        }
+        q[0] = (byte)(id >> 8);
+        q[1] = (byte)id;
+        q[2] = 0x01; // recursion desired
+        q[5] = 1; // one question
+        int i = 12;
+        int labelStart = 0;
+        for(int k = 0; k <= name.length; ++k)
+        {
+            if(k == name.length || name[k] == '.')
+            {
+                q[i++] = (byte)(k - labelStart);
+                System.arraycopy(name, labelStart, q, i, k - labelStart);
+                i += k - labelStart;
+                labelStart = k + 1;
+            }
+        }
+        q[i++] = 0;
+        q[i++] = 0;
+        q[i++] = 1; // A
+        q[i++] = 0;
+        q[i++] = 1; // IN
+        return q;
+    }
+
+    private static InetAddress parse(String hostName, byte[] r, int len) throws IOException
+    {
+        final int answers = ((r[6] & 0xff) << 8) | (r[7] & 0xff);
+        int i = skipName(r, 12) + 4;
+        for(int a = 0; a < answers && i < len; ++a)
+        {
+            i = skipName(r, i);
+            final int type = ((r[i] & 0xff) << 8) | (r[i + 1] & 0xff);
+            final int rdlen = ((r[i + 8] & 0xff) << 8) | (r[i + 9] & 0xff);
+            i += 10;
+            if(type == 1 && rdlen == 4)
+            {
+                final byte[] addr = new byte[4];
+                System.arraycopy(r, i, addr, 0, 4);
+                return InetAddress.getByAddress(hostName, addr);
+            }
+            i += rdlen;
+        }
+        throw new UnknownHostException(hostName);
+    }
+
+    private static int skipName(byte[] r, int i)
+    {
+        while(r[i] != 0)
+        {
+            if((r[i] & 0xc0) == 0xc0)
+                return i + 2;
+            i += (r[i] & 0xff) + 1;
+        }
+        return i + 1;
+    }
+
+    /**
+     * @return the uncompressed name at offset i, or null.
+     */
+    static String readName(byte[] r, int i)
+    {
+        final StringBuilder sb = new StringBuilder();
+        while(i < r.length && r[i] != 0)
+        {
+            final int l = r[i] & 0xff;
+            if(l > 63 || i + 1 + l > r.length)
+                return null;
+            if(sb.length() > 0)
+                sb.append('.');
+            sb.append(new String(r, i + 1, l));
+            i += l + 1;
+        }
+        return sb.toString();
+    }
+
+    private StubDnsClient() {}
+
+}
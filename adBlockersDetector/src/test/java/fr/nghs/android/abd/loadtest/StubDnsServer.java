@@ -0,0 +1,161 @@
+/*
+ * StubDnsServer.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd.loadtest;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal local DNS server answering A queries, with injected latency.
+ * Names of the blocked set resolve to 127.0.0.1, others to a public address.
+ */
+public final class StubDnsServer
+{
+
+    private static final byte[] LOCAL = { 127, 0, 0, 1 };
+    private static final byte[] PUBLIC = { (byte)93, (byte)184, (byte)216, 34 };
+
+    private final DatagramSocket socket;
+    private final Set<String> blocked;
+    private final long latencyMs;
+    private final ScheduledExecutorService replies;
+    private final Thread receiver;
+    private volatile boolean running = true;
+
+    /**
+     * Start the server on a free local port.
+     * @param blockedHosts names answered with a loopback address
+     * @param latencyMs delay before each answer
+     */
+    public StubDnsServer(String[] blockedHosts, long latencyMs) throws IOException
+    {
+        this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getByAddress(LOCAL), 0));
+        this.blocked = new HashSet<>(Arrays.asList(blockedHosts));
+        this.latencyMs = latencyMs;
+        this.replies = Executors.newScheduledThreadPool(2);
+        this.receiver = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                serve();
+            }
+        }, "stub-dns");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return (InetSocketAddress)socket.getLocalSocketAddress();
+    }
+
+    public void close()
+    {
+        running = false;
+        socket.close();
+        replies.shutdownNow();
+    }
+
+    private void serve()
+    {
+        while(running)
+        {
+            try
+            {
+                final DatagramPacket p = new DatagramPacket(new byte[512], 512);
+                socket.receive(p);
+                final byte[] answer = answer(p.getData(), p.getLength());
+                if(answer == null)
+                    continue;
+                final DatagramPacket r = new DatagramPacket(answer, answer.length, p.getSocketAddress());
+                replies.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            socket.send(r);
+                        }
+                        catch(IOException e)
+                        {
+                        }
+                    }
+                }, latencyMs, TimeUnit.MILLISECONDS);
+            }
+            catch(IOException e)
+            {
+                // closed
+            }
+            catch(RuntimeException e)
+            {
+                // malformed query or rejected after close
+            }
+        }
+    }
+
+    private byte[] answer(byte[] q, int len)
+    {
+        if(len < 12)
+            return null;
+        final String name = StubDnsClient.readName(q, 12);
+        if(name == null)
+            return null;
+        int end = 12;
+        while(q[end] != 0)
+            end += (q[end] & 0xff) + 1;
+        end += 5; // zero label, type, class
+        final byte[] r = new byte[end + 16];
+        System.arraycopy(q, 0, r, 0, end);
+        r[2] = (byte)0x81;
+        r[3] = (byte)0x80;
+        r[6] = 0;
+        r[7] = 1; // one answer
+        r[8] = r[9] = r[10] = r[11] = 0;
+        int i = end;
+        r[i++] = (byte)0xc0;
+        r[i++] = 12; // pointer to question name
+        r[i++] = 0;
+        r[i++] = 1; // A
+        r[i++] = 0;
+        r[i++] = 1; // IN
+        r[i++] = 0;
+        r[i++] = 0;
+        r[i++] = 0;
+        r[i++] = 60; // TTL
+        r[i++] = 0;
+        r[i++] = 4;
+        System.arraycopy(blocked.contains(name) ? LOCAL : PUBLIC, 0, r, i, 4);
+        return r;
+    }
+
+}
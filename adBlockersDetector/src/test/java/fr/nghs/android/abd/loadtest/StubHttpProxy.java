@@ -0,0 +1,164 @@
+/*
+ * StubHttpProxy.java
+ *
+ * Copyright (c) 2012, Nicolas GUILLAUME. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package fr.nghs.android.abd.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for an HTTP proxy: every request gets a 200 answer with a
+ * body of a given size, after an injected latency. A size lower than 4
+ * imitates an ad filtering proxy.
+ */
+public final class StubHttpProxy
+{
+
+    private final ServerSocket server;
+    private final int bodySize;
+    private final long latencyMs;
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+    private final Meter connections = new Meter();
+    private volatile boolean running = true;
+
+    /**
+     * Start the proxy on a free local port.
+     */
+    public StubHttpProxy(int bodySize, long latencyMs) throws IOException
+    {
+        this.server = new ServerSocket(0, 256, InetAddress.getByAddress(new byte[] { 127, 0, 0, 1 }));
+        this.bodySize = bodySize;
+        this.latencyMs = latencyMs;
+        final Thread t = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                accept();
+            }
+        }, "stub-proxy");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return (InetSocketAddress)server.getLocalSocketAddress();
+    }
+
+    /** @return server side connections, see {@link Meter#getPeak()}. */
+    public Meter getConnections()
+    {
+        return connections;
+    }
+
+    public void close()
+    {
+        running = false;
+        try
+        {
+            server.close();
+        }
+        catch(IOException e)
+        {
+        }
+        handlers.shutdownNow();
+    }
+
+    private void accept()
+    {
+        while(running)
+        {
+            try
+            {
+                final Socket s = server.accept();
+                connections.enter();
+                handlers.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        handle(s);
+                    }
+                });
+            }
+            catch(IOException e)
+            {
+                // closed
+            }
+            catch(RuntimeException e)
+            {
+                // rejected after close
+            }
+        }
+    }
+
+    private void handle(Socket s)
+    {
+        try
+        {
+            // read request headers
+            final InputStream in = s.getInputStream();
+            int state = 0;
+            int b;
+            while(state < 4 && (b = in.read()) >= 0)
+            {
+                if((b == '\r' && (state == 0 || state == 2)) || (b == '\n' && (state == 1 || state == 3)))
+                    ++state;
+                else
+                    state = 0;
+            }
+            if(latencyMs > 0)
+                Thread.sleep(latencyMs);
+            final OutputStream out = s.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/javascript\r\nContent-Length: " + bodySize +
+                    "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+            for(int i = 0; i < bodySize; ++i)
+                out.write(' ');
+            out.flush();
+        }
+        catch(IOException e)
+        {
+        }
+        catch(InterruptedException e)
+        {
+        }
+        finally
+        {
+            try
+            {
+                s.close();
+            }
+            catch(IOException e)
+            {
+            }
+            connections.exit();
+        }
+    }
+
+}